@@ -0,0 +1,118 @@
+/*
+ * Copyright (C) 2015 Jeremy Wildsmith.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+package io.github.jevaengine.rpg;
+
+import io.github.jevaengine.rpg.AttributeSet.DefaultAttributeIdentifier;
+import io.github.jevaengine.rpg.IImmutableAttributeSet.IAttributeIdentifier;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Global registry interning attribute names to dense integer ids. Ids are
+ * assigned in registration order, start at zero and are never recycled, so
+ * they may be used directly as indices into per-set value arrays.
+ *
+ * @author Jeremy
+ */
+public final class AttributeRegistry
+{
+	public static final int UNREGISTERED = -1;
+
+	private static final Map<String, Integer> IDS = new ConcurrentHashMap<>();
+	private static volatile IAttributeIdentifier[] IDENTIFIERS = new IAttributeIdentifier[0];
+
+	private AttributeRegistry() { }
+
+	public static int getId(String name)
+	{
+		Integer id = IDS.get(name);
+
+		if(id != null)
+			return id;
+
+		return register(new DefaultAttributeIdentifier(name));
+	}
+
+	public static int getId(IAttributeIdentifier identifier)
+	{
+		if(identifier instanceof DefaultAttributeIdentifier)
+			return ((DefaultAttributeIdentifier)identifier).getId();
+
+		Integer id = IDS.get(identifier.getName());
+
+		if(id != null)
+			return id;
+
+		return register(identifier);
+	}
+
+	/**
+	 * Looks up the id of an attribute without registering it.
+	 *
+	 * @return The id of the attribute, or {@link #UNREGISTERED} if no attribute by this name exists.
+	 */
+	public static int lookup(String name)
+	{
+		Integer id = IDS.get(name);
+
+		return id == null ? UNREGISTERED : id;
+	}
+
+	/**
+	 * Looks up the id of an attribute without registering it.
+	 *
+	 * @return The id of the attribute, or {@link #UNREGISTERED} if the attribute has not been registered.
+	 */
+	public static int lookup(IAttributeIdentifier identifier)
+	{
+		if(identifier instanceof DefaultAttributeIdentifier)
+			return ((DefaultAttributeIdentifier)identifier).getId();
+
+		return lookup(identifier.getName());
+	}
+
+	public static IAttributeIdentifier getIdentifier(int id)
+	{
+		return IDENTIFIERS[id];
+	}
+
+	public static int getCount()
+	{
+		return IDENTIFIERS.length;
+	}
+
+	private static synchronized int register(IAttributeIdentifier identifier)
+	{
+		Integer existing = IDS.get(identifier.getName());
+
+		if(existing != null)
+			return existing;
+
+		IAttributeIdentifier[] identifiers = Arrays.copyOf(IDENTIFIERS, IDENTIFIERS.length + 1);
+		int id = identifiers.length - 1;
+		identifiers[id] = identifier;
+
+		IDENTIFIERS = identifiers;
+		IDS.put(identifier.getName(), id);
+
+		return id;
+	}
+}
@@ -18,116 +18,592 @@
  */
 package io.github.jevaengine.rpg;
 
+import io.github.jevaengine.rpg.AttributeSnapshot.Chunk;
+import io.github.jevaengine.rpg.TimerWheel.ITimerTask;
 import io.github.jevaengine.util.IObserverRegistry;
-import io.github.jevaengine.util.Observers;
+import io.github.jevaengine.util.NullObservers;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.function.Consumer;
 
-
+/**
+ * Attribute values are stored in fixed size chunks of a primitive array indexed by the id assigned
+ * to each attribute by the {@link AttributeRegistry}. Attribute handles (and their observers) are
+ * only allocated for attributes which are explicitly requested via get.
+ * 
+ * Chunks are shared copy-on-write with {@link AttributeSnapshot}s, so taking a snapshot is O(1)
+ * and a subsequent write only copies the chunk it modifies. Copying a set shares the chunks already
+ * shared with a snapshot and copies those the source may still write to, leaving the source as is.
+ * 
+ * Attributes may additionally carry additive and multiplicative modifiers, optionally expiring
+ * after a duration. Reads observe the effective value, (base + additive) * (1 + multiplicative),
+ * and writes assign the base value which yields the written effective value. Where multiplicative
+ * modifiers scale an attribute to zero, no base value yields the written value, so it is written to
+ * the base value unchanged and takes effect once those modifiers are removed.
+ */
 public final class AttributeSet implements IImmutableAttributeSet
 {
-	private final Map<IAttributeIdentifier, Attribute> m_attributes = new HashMap<>();
+	private Chunk[] m_chunks;
+	private boolean m_isChunksShared;
+	private Object m_owner = new Object();
+	
+	private static final Attribute[] NO_ATTRIBUTES = new Attribute[0];
+	
+	//Handles are indexed by id, and allocated up to the highest id requested via get.
+	private Attribute[] m_attributes = NO_ATTRIBUTES;
+	
+	private final MergeVisitor m_mergeVisitor = new MergeVisitor();
+	
+	private ObserverList<IAttributeSetObserver> m_observers;
+	
+	private int m_batchDepth = 0;
+	private float[] m_batchOrigins;
+	private long[] m_batchPending;
+	private long[] m_batchAdded;
+	
+	private List<Modifier> m_modifiers;
+	private float[] m_additive;
+	private float[] m_multiplicative;
 
-	public AttributeSet() { }
+	public AttributeSet()
+	{
+		this(AttributeSnapshot.EMPTY);
+	}
+	
+	public AttributeSet(AttributeSnapshot src)
+	{
+		m_chunks = src.getChunks();
+		m_isChunksShared = true;
+	}
 	
 	public AttributeSet(IImmutableAttributeSet src)
 	{
-		for(Map.Entry<IAttributeIdentifier, IImmutableAttribute> a : src.getSet())
-			m_attributes.put(a.getKey(), new Attribute(a.getValue().get()));
+		this(src instanceof AttributeSnapshot ? (AttributeSnapshot)src : AttributeSnapshot.EMPTY);
+		
+		if(src instanceof AttributeSet)
+			copy((AttributeSet)src);
+		else if(!(src instanceof AttributeSnapshot))
+			src.forEach(m_mergeVisitor);
 	}
 	
 	public AttributeSet(Map<IAttributeIdentifier, Float> initialAttributes)
 	{
+		this();
+		
 		for(Map.Entry<IAttributeIdentifier, Float> a : initialAttributes.entrySet())
-			m_attributes.put(a.getKey(), new Attribute(a.getValue()));
+			put(AttributeRegistry.getId(a.getKey()), a.getValue());
+	}
+	
+	private void copy(AttributeSet src)
+	{
+		m_chunks = src.m_chunks.clone();
+		m_isChunksShared = false;
+		
+		for(int index = 0; index < m_chunks.length; index++)
+		{
+			Chunk chunk = m_chunks[index];
+			
+			if(chunk != null && chunk.owner == src.m_owner)
+				m_chunks[index] = new Chunk(chunk, m_owner);
+		}
+		
+		if(src.m_modifiers != null)
+		{
+			for(Modifier m : src.m_modifiers)
+				put(m.m_id, src.getValue(m.m_id));
+		}
+	}
+	
+	private int getCapacity()
+	{
+		return m_chunks.length * Chunk.SIZE;
+	}
+	
+	private boolean isPresent(int id)
+	{
+		if(id < 0 || id >= getCapacity())
+			return false;
+		
+		Chunk chunk = m_chunks[id / Chunk.SIZE];
+		
+		return chunk != null && chunk.isPresent(id);
+	}
+	
+	private Chunk edit(int id)
+	{
+		int index = id / Chunk.SIZE;
+		
+		if(index >= m_chunks.length)
+		{
+			//Storage only extends to the chunk of the highest id present, chunks below it are allocated once written.
+			m_chunks = Arrays.copyOf(m_chunks, index + 1);
+			m_isChunksShared = false;
+		} else if(m_isChunksShared)
+		{
+			m_chunks = m_chunks.clone();
+			m_isChunksShared = false;
+		}
+		
+		Chunk chunk = m_chunks[index];
+		
+		if(chunk == null)
+			chunk = m_chunks[index] = new Chunk(m_owner);
+		else if(chunk.owner != m_owner)
+			chunk = m_chunks[index] = new Chunk(chunk, m_owner);
+		
+		return chunk;
+	}
+	
+	private void put(int id, float value)
+	{
+		if(!isPresent(id))
+			added(id);
+		
+		Chunk chunk = edit(id);
+		
+		chunk.values[id % Chunk.SIZE] = value;
+		chunk.present |= 1L << id;
+	}
+	
+	private void raiseChanged(int id, float delta)
+	{
+		Attribute attribute = id < m_attributes.length ? m_attributes[id] : null;
+		
+		if(delta != 0 && attribute != null && attribute.m_observers != null)
+		{
+			for(IAttributeChangeObserver o : attribute.m_observers.get())
+				o.changed(delta);
+		}
+		
+		if(m_observers != null)
+		{
+			for(IAttributeSetObserver o : m_observers.get())
+				o.changed(id, delta);
+		}
+	}
+	
+	private void ensureBatchCapacity(int id)
+	{
+		if(m_batchOrigins != null && id < m_batchOrigins.length)
+			return;
+		
+		int capacity = Math.max(id / Chunk.SIZE + 1, m_chunks.length);
+		
+		m_batchOrigins = m_batchOrigins == null ? new float[capacity * Chunk.SIZE] : Arrays.copyOf(m_batchOrigins, capacity * Chunk.SIZE);
+		m_batchPending = m_batchPending == null ? new long[capacity] : Arrays.copyOf(m_batchPending, capacity);
+		m_batchAdded = m_batchAdded == null ? new long[capacity] : Arrays.copyOf(m_batchAdded, capacity);
+	}
+	
+	//Notes that an attribute is being added to this set, so that a batch reports it even if its value does not change.
+	private void added(int id)
+	{
+		if(m_batchDepth == 0)
+			return;
+		
+		ensureBatchCapacity(id);
+		m_batchAdded[id / Long.SIZE] |= 1L << id;
+	}
+	
+	private void changed(int id, float oldValue)
+	{
+		if(m_batchDepth == 0)
+		{
+			raiseChanged(id, getValue(id) - oldValue);
+			return;
+		}
+		
+		ensureBatchCapacity(id);
+		
+		long bit = 1L << id;
+		
+		if((m_batchPending[id / Long.SIZE] & bit) == 0)
+		{
+			m_batchPending[id / Long.SIZE] |= bit;
+			m_batchOrigins[id] = oldValue;
+		}
+	}
+	
+	/**
+	 * Begins a batch of modifications. Until the matching {@link #commit()}, change observers are not
+	 * notified; instead, each attribute modified during the batch raises a single notification
+	 * carrying its net change when the batch is committed. Batches may be nested, in which case
+	 * notifications are raised when the outermost batch is committed. Attributes whose changes cancel
+	 * out over the batch raise no notification, unless they were added by it.
+	 */
+	public void beginBatch()
+	{
+		m_batchDepth++;
+	}
+	
+	public void commit()
+	{
+		if(m_batchDepth == 0)
+			throw new IllegalStateException("Cannot commit, no batch has been started.");
+		
+		if(--m_batchDepth > 0 || m_batchPending == null)
+			return;
+		
+		for(int word = 0; word < m_batchPending.length; word++)
+		{
+			long bits = m_batchPending[word];
+			long added = m_batchAdded[word];
+			m_batchPending[word] = 0;
+			m_batchAdded[word] = 0;
+			
+			for(; bits != 0; bits &= bits - 1)
+			{
+				int id = word * Long.SIZE + Long.numberOfTrailingZeros(bits);
+				float delta = getValue(id) - m_batchOrigins[id];
+				
+				if(delta != 0 || (added & (1L << id)) != 0)
+					raiseChanged(id, delta);
+			}
+		}
+	}
+	
+	/**
+	 * Applies the given modification within a batch, which is committed even if the modification throws.
+	 */
+	public void modify(Consumer<AttributeSet> modification)
+	{
+		beginBatch();
+		
+		try
+		{
+			modification.accept(this);
+		} finally
+		{
+			commit();
+		}
+	}
+	
+	private float getBaseValue(int id)
+	{
+		return isPresent(id) ? m_chunks[id / Chunk.SIZE].values[id % Chunk.SIZE] : 0;
+	}
+	
+	private float toBaseValue(int id, float value)
+	{
+		if(m_additive == null || id >= m_additive.length || 1 + m_multiplicative[id] == 0)
+			return value;
+		
+		return value / (1 + m_multiplicative[id]) - m_additive[id];
+	}
+	
+	float getValue(int id)
+	{
+		float base = getBaseValue(id);
+		
+		if(m_additive == null || id >= m_additive.length)
+			return base;
+		
+		return (base + m_additive[id]) * (1 + m_multiplicative[id]);
+	}
+	
+	private void recalculateModifiers(int id)
+	{
+		if(m_additive == null || id >= m_additive.length)
+		{
+			m_additive = m_additive == null ? new float[getCapacity()] : Arrays.copyOf(m_additive, getCapacity());
+			m_multiplicative = m_multiplicative == null ? new float[getCapacity()] : Arrays.copyOf(m_multiplicative, getCapacity());
+		}
+		
+		float additive = 0;
+		float multiplicative = 0;
+		
+		for(int i = 0; i < m_modifiers.size(); i++)
+		{
+			Modifier m = m_modifiers.get(i);
+			
+			if(m.m_id != id)
+				continue;
+			
+			if(m.m_type == AttributeModifierType.Additive)
+				additive += m.m_amount;
+			else
+				multiplicative += m.m_amount;
+		}
+		
+		m_additive[id] = additive;
+		m_multiplicative[id] = multiplicative;
+	}
+	
+	private Modifier addModifier(Modifier modifier)
+	{
+		int id = modifier.m_id;
+		float oldValue = getValue(id);
+		
+		if(!isPresent(id))
+			put(id, 0);
+		
+		if(m_modifiers == null)
+			m_modifiers = new ArrayList<>();
+		
+		m_modifiers.add(modifier);
+		recalculateModifiers(id);
+		changed(id, oldValue);
+		
+		return modifier;
+	}
+	
+	private void removeModifier(Modifier modifier)
+	{
+		int id = modifier.m_id;
+		float oldValue = getValue(id);
+		
+		if(!m_modifiers.remove(modifier))
+			return;
+		
+		if(modifier.m_expiry != null)
+			modifier.m_expiry.cancel();
+		
+		recalculateModifiers(id);
+		changed(id, oldValue);
+	}
+	
+	public void addModifier(IAttributeIdentifier attribute, String source, AttributeModifierType type, float amount)
+	{
+		addModifier(new Modifier(AttributeRegistry.getId(attribute), source, type, amount));
+	}
+	
+	/**
+	 * Adds a modifier which is removed once the given duration has elapsed on the given timer.
+	 */
+	public void addModifier(IAttributeIdentifier attribute, String source, AttributeModifierType type, float amount, TimerWheel timer, int duration)
+	{
+		Modifier modifier = addModifier(new Modifier(AttributeRegistry.getId(attribute), source, type, amount));
+		modifier.m_expiry = timer.schedule(duration, modifier);
+	}
+	
+	public void removeModifiers(String source)
+	{
+		if(m_modifiers == null)
+			return;
+		
+		for(int i = m_modifiers.size() - 1; i >= 0; i--)
+		{
+			if(i < m_modifiers.size() && m_modifiers.get(i).m_source.equals(source))
+				removeModifier(m_modifiers.get(i));
+		}
+	}
+	
+	/**
+	 * Restores this set to the values captured by the given snapshot, removing every modifier. As
+	 * with a batch, each attribute whose value changes raises a single notification.
+	 */
+	public void restore(AttributeSnapshot snapshot)
+	{
+		Chunk[] chunks = snapshot.getChunks();
+		
+		if(chunks.length > m_chunks.length)
+			edit(chunks.length * Chunk.SIZE - 1);
+		
+		beginBatch();
+		
+		if(m_modifiers != null)
+		{
+			while(!m_modifiers.isEmpty())
+				removeModifier(m_modifiers.get(m_modifiers.size() - 1));
+		}
+		
+		for(int id = 0; id < getCapacity(); id++)
+		{
+			if(isPresent(id) || snapshot.has(id))
+			{
+				if(!isPresent(id))
+					added(id);
+				
+				changed(id, getValue(id));
+			}
+		}
+		
+		//Retain the current capacity, which covers the attributes noted as changed above.
+		m_chunks = chunks.length == m_chunks.length ? chunks : Arrays.copyOf(chunks, m_chunks.length);
+		m_isChunksShared = m_chunks == chunks;
+		m_owner = new Object();
+		
+		commit();
+	}
+	
+	/**
+	 * Captures the current values of this set. The snapshot shares storage with this set, which
+	 * copies a chunk of its storage the next time it is written to. Snapshots are immutable and
+	 * may be read from any thread, but this method must be invoked by the thread which owns this set.
+	 */
+	public AttributeSnapshot snapshot()
+	{
+		m_isChunksShared = true;
+		m_owner = new Object();
+		
+		AttributeSnapshot snapshot = new AttributeSnapshot(m_chunks);
+		
+		if(m_modifiers != null)
+		{
+			for(Modifier m : m_modifiers)
+				snapshot = snapshot.with(m.m_id, getValue(m.m_id));
+		}
+		
+		return snapshot;
+	}
+	
+	/**
+	 * Observers registered here receive an {@link IAttributeSetObserver} notification whenever the
+	 * value of any attribute in this set changes.
+	 */
+	public IObserverRegistry getObservers()
+	{
+		if(m_observers == null)
+			m_observers = new ObserverList<>(IAttributeSetObserver.class);
+		
+		return m_observers;
 	}
 	
 	@Override
 	public Set<Map.Entry<IAttributeIdentifier, IImmutableAttribute>> getSet()
 	{
-		Map<IAttributeIdentifier, IImmutableAttribute> buffer = new HashMap<>();
+		final Map<IAttributeIdentifier, IImmutableAttribute> buffer = new HashMap<>();
 		
-		for(Map.Entry<IAttributeIdentifier, Attribute> a : m_attributes.entrySet())
-			buffer.put(a.getKey(), new Attribute(a.getValue().get()));
+		forEach(new IAttributeVisitor() {
+			@Override
+			public void visit(int id, float value)
+			{
+				buffer.put(AttributeRegistry.getIdentifier(id), new ImmutableAttribute(value));
+			}
+		});
 	
 		return Collections.unmodifiableMap(buffer).entrySet();
 	}
 	
-	public void merge(IImmutableAttributeSet ... sets)
+	@Override
+	public void forEach(IAttributeVisitor visitor)
 	{
-		for(IImmutableAttributeSet s : sets)
+		if(m_modifiers == null || m_modifiers.isEmpty())
+		{
+			AttributeSnapshot.forEach(m_chunks, visitor);
+			return;
+		}
+		
+		for(int index = 0; index < m_chunks.length; index++)
 		{
-			for(Map.Entry<IAttributeIdentifier, IImmutableAttribute> a : s.getSet())
+			Chunk chunk = m_chunks[index];
+			
+			if(chunk == null)
+				continue;
+			
+			for(long bits = chunk.present; bits != 0; bits &= bits - 1)
 			{
-				Attribute current = m_attributes.get(a.getKey());
-				
-				if(current == null)
-					m_attributes.put(a.getKey(), new Attribute(a.getValue().get()));
-				else
-					m_attributes.put(a.getKey(), new Attribute(current.get() + a.getValue().get()));
+				int id = index * Chunk.SIZE + Long.numberOfTrailingZeros(bits);
+				visitor.visit(id, getValue(id));
 			}
 		}
 	}
 	
+	public void merge(IImmutableAttributeSet ... sets)
+	{
+		for(IImmutableAttributeSet s : sets)
+			s.forEach(m_mergeVisitor);
+	}
+	
 	public AttributeSet overlay(AttributeSet ... statistics)
 	{
 		AttributeSet buffer = new AttributeSet(this);
 		
 		for(AttributeSet s : statistics)
-			buffer.merge(s);
+			s.forEach(buffer.m_mergeVisitor);
 		
 		return buffer;
 	}
 	
+	public boolean has(int id)
+	{
+		return isPresent(id);
+	}
+	
 	@Override
 	public boolean has(IAttributeIdentifier attribute)
 	{
-		return m_attributes.containsKey(attribute);
+		return isPresent(AttributeRegistry.getId(attribute));
 	}
 	
 	@Override
 	public boolean has(String name)
 	{
-		for(Map.Entry<IAttributeIdentifier, Attribute> a : m_attributes.entrySet())
-			if(a.getKey().getName().equals(name))
-				return true;
+		return isPresent(AttributeRegistry.lookup(name));
+	}
+	
+	public IAttribute get(int id)
+	{
+		if(!isPresent(id))
+		{
+			put(id, 0);
+			changed(id, 0);
+		}
 		
-		return false;
+		return getHandle(id);
+	}
+	
+	private Attribute getHandle(int id)
+	{
+		if(id >= m_attributes.length)
+			m_attributes = Arrays.copyOf(m_attributes, id + 1);
+		
+		Attribute attribute = m_attributes[id];
+		
+		if(attribute == null)
+		{
+			attribute = new Attribute(id);
+			m_attributes[id] = attribute;
+		}
+		
+		return attribute;
 	}
 	
 	@Override
 	public IAttribute get(IAttributeIdentifier attribute)
 	{
-		if(!m_attributes.containsKey(attribute))
-			m_attributes.put(attribute, new Attribute());
-			
-		return m_attributes.get(attribute);
+		return get(AttributeRegistry.getId(attribute));
 	}
 	
 	@Override
 	public IAttribute get(String name)
 	{
-		for(Map.Entry<IAttributeIdentifier, Attribute> a : m_attributes.entrySet())
-			if(a.getKey().getName().equals(name))
-				return a.getValue();
-		
-		m_attributes.put(new DefaultAttributeIdentifier(name), new Attribute());
-		
-		return get(name);
+		return get(AttributeRegistry.getId(name));
+	}
+	
+	/**
+	 * Unlike {@link #get(IAttributeIdentifier)}, does not add an absent attribute to this set. An
+	 * absent attribute reads as zero, and its observers are notified once it is added.
+	 */
+	@Override
+	public IImmutableAttribute view(IAttributeIdentifier attribute)
+	{
+		return getHandle(AttributeRegistry.getId(attribute));
 	}
 	
 	public static final class DefaultAttributeIdentifier implements IAttributeIdentifier
 	{
 		private final String m_name;
+		private int m_id = AttributeRegistry.UNREGISTERED;
 	
 		public DefaultAttributeIdentifier(String name)
 		{
 			m_name = name;
 		}
 		
+		int getId()
+		{
+			if(m_id == AttributeRegistry.UNREGISTERED)
+				m_id = AttributeRegistry.getId(m_name);
+			
+			return m_id;
+		}
+		
 		@Override
 		public String getName()
 		{
@@ -139,21 +615,68 @@ public final class AttributeSet implements IImmutableAttributeSet
 		{
 			return "";
 		}
+
+		@Override
+		public boolean equals(Object o)
+		{
+			if (this == o) return true;
+			if (o == null || getClass() != o.getClass()) return false;
+			DefaultAttributeIdentifier that = (DefaultAttributeIdentifier) o;
+			return m_name.equals(that.m_name);
+		}
+
+		@Override
+		public int hashCode()
+		{
+			return m_name.hashCode();
+		}
 	}
 	
-	private final class Attribute implements IAttribute
+	/**
+	 * Raised when the value of an attribute changes, or with a delta of zero when an attribute is added.
+	 */
+	public interface IAttributeSetObserver
 	{
-		private final Observers m_observers = new Observers();
-		private float m_value;
+		void changed(int id, float delta);
+	}
+	
+	public enum AttributeModifierType
+	{
+		Additive,
+		Multiplicative,
+	}
+	
+	private final class Modifier implements ITimerTask
+	{
+		private final int m_id;
+		private final String m_source;
+		private final AttributeModifierType m_type;
+		private final float m_amount;
 		
-		public Attribute(float value)
+		private TimerWheel.Timer m_expiry;
+		
+		public Modifier(int id, String source, AttributeModifierType type, float amount)
 		{
-			m_value = value;
+			m_id = id;
+			m_source = source;
+			m_type = type;
+			m_amount = amount;
 		}
 		
-		public Attribute()
+		@Override
+		public void expired()
+		{
+			removeModifier(this);
+		}
+	}
+	
+	static final class ImmutableAttribute implements IImmutableAttribute
+	{
+		private final float m_value;
+		
+		public ImmutableAttribute(float value)
 		{
-			this(0);
+			m_value = value;
 		}
 		
 		@Override
@@ -168,21 +691,75 @@ public final class AttributeSet implements IImmutableAttributeSet
 			return Math.abs(m_value) < 0.00001F;
 		}
 		
+		@Override
+		public IObserverRegistry getObservers()
+		{
+			return new NullObservers();
+		}
+	}
+	
+	private final class MergeVisitor implements IAttributeVisitor
+	{
+		@Override
+		public void visit(int id, float value)
+		{
+			if(isPresent(id))
+			{
+				if(value == 0)
+					return;
+				
+				float oldValue = getValue(id);
+				edit(id).values[id % Chunk.SIZE] = getBaseValue(id) + value;
+				changed(id, oldValue);
+			} else
+			{
+				put(id, value);
+				changed(id, 0);
+			}
+		}
+	}
+	
+	private final class Attribute implements IAttribute
+	{
+		private final int m_id;
+		private ObserverList<IAttributeChangeObserver> m_observers;
+		
+		public Attribute(int id)
+		{
+			m_id = id;
+		}
+		
+		@Override
+		public float get()
+		{
+			return getValue(m_id);
+		}
+		
+		@Override
+		public boolean isZero()
+		{
+			return Math.abs(getValue(m_id)) < 0.00001F;
+		}
+		
 		@Override
 		public void set(float newValue)
 		{
-			if(m_value == newValue)
+			float oldValue = getValue(m_id);
+			
+			if(oldValue == newValue)
 				return;
 			
-			float oldValue = m_value;
-			m_value = newValue;
+			put(m_id, toBaseValue(m_id, newValue));
 			
-			m_observers.raise(IAttributeChangeObserver.class).changed(newValue - oldValue);
+			changed(m_id, oldValue);
 		}
 		
 		@Override
 		public IObserverRegistry getObservers()
 		{
+			if(m_observers == null)
+				m_observers = new ObserverList<>(IAttributeChangeObserver.class);
+			
 			return m_observers;
 		}
 	}
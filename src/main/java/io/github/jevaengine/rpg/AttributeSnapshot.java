@@ -0,0 +1,184 @@
+/*
+ * Copyright (C) 2015 Jeremy Wildsmith.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+package io.github.jevaengine.rpg;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * An immutable, persistent set of attribute values. Snapshots share their storage structurally:
+ * copying one is free and {@link #with(int, float)} only copies the chunk holding the modified
+ * attribute. Being immutable, snapshots are safe to read from any thread.
+ *
+ * @author Jeremy
+ */
+public final class AttributeSnapshot implements IImmutableAttributeSet
+{
+	public static final AttributeSnapshot EMPTY = new AttributeSnapshot(new Chunk[0]);
+
+	private final Chunk[] m_chunks;
+
+	AttributeSnapshot(Chunk[] chunks)
+	{
+		m_chunks = chunks;
+	}
+
+	Chunk[] getChunks()
+	{
+		return m_chunks;
+	}
+
+	static void forEach(Chunk[] chunks, IAttributeVisitor visitor)
+	{
+		for(int index = 0; index < chunks.length; index++)
+		{
+			Chunk chunk = chunks[index];
+
+			if(chunk == null)
+				continue;
+
+			for(long bits = chunk.present; bits != 0; bits &= bits - 1)
+			{
+				int offset = Long.numberOfTrailingZeros(bits);
+				visitor.visit(index * Chunk.SIZE + offset, chunk.values[offset]);
+			}
+		}
+	}
+
+	public AttributeSnapshot with(int id, float value)
+	{
+		int index = id / Chunk.SIZE;
+
+		Chunk[] chunks = index < m_chunks.length ? m_chunks.clone() : Arrays.copyOf(m_chunks, index + 1);
+		Chunk chunk = chunks[index] == null ? new Chunk(null) : new Chunk(chunks[index], null);
+
+		chunk.values[id % Chunk.SIZE] = value;
+		chunk.present |= 1L << id;
+		chunks[index] = chunk;
+
+		return new AttributeSnapshot(chunks);
+	}
+
+	public AttributeSnapshot with(IAttributeIdentifier attribute, float value)
+	{
+		return with(AttributeRegistry.getId(attribute), value);
+	}
+
+	public boolean has(int id)
+	{
+		if(id < 0 || id / Chunk.SIZE >= m_chunks.length)
+			return false;
+
+		Chunk chunk = m_chunks[id / Chunk.SIZE];
+
+		return chunk != null && chunk.isPresent(id);
+	}
+
+	public float getValue(int id)
+	{
+		return has(id) ? m_chunks[id / Chunk.SIZE].values[id % Chunk.SIZE] : 0;
+	}
+
+	@Override
+	public boolean has(IAttributeIdentifier attribute)
+	{
+		return has(AttributeRegistry.getId(attribute));
+	}
+
+	@Override
+	public boolean has(String name)
+	{
+		return has(AttributeRegistry.lookup(name));
+	}
+
+	public IImmutableAttribute get(int id)
+	{
+		return new AttributeSet.ImmutableAttribute(getValue(id));
+	}
+
+	@Override
+	public IImmutableAttribute get(IAttributeIdentifier attribute)
+	{
+		return get(AttributeRegistry.getId(attribute));
+	}
+
+	@Override
+	public IImmutableAttribute get(String name)
+	{
+		int id = AttributeRegistry.lookup(name);
+
+		return new AttributeSet.ImmutableAttribute(id == AttributeRegistry.UNREGISTERED ? 0 : getValue(id));
+	}
+
+	@Override
+	public void forEach(IAttributeVisitor visitor)
+	{
+		forEach(m_chunks, visitor);
+	}
+
+	@Override
+	public Set<Map.Entry<IAttributeIdentifier, IImmutableAttribute>> getSet()
+	{
+		final Map<IAttributeIdentifier, IImmutableAttribute> buffer = new HashMap<>();
+
+		forEach(new IAttributeVisitor() {
+			@Override
+			public void visit(int id, float value)
+			{
+				buffer.put(AttributeRegistry.getIdentifier(id), new AttributeSet.ImmutableAttribute(value));
+			}
+		});
+
+		return Collections.unmodifiableMap(buffer).entrySet();
+	}
+
+	/**
+	 * A fixed size block of attribute values. A chunk may only be written to by the holder of its
+	 * owner token; chunks without an owner are immutable.
+	 */
+	static final class Chunk
+	{
+		static final int SIZE = Long.SIZE;
+
+		final float[] values;
+		long present;
+		final Object owner;
+
+		Chunk(Object owner)
+		{
+			this.values = new float[SIZE];
+			this.owner = owner;
+		}
+
+		Chunk(Chunk src, Object owner)
+		{
+			this.values = src.values.clone();
+			this.present = src.present;
+			this.owner = owner;
+		}
+
+		boolean isPresent(int id)
+		{
+			return (present & (1L << id)) != 0;
+		}
+	}
+}
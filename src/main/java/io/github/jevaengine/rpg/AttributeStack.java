@@ -0,0 +1,334 @@
+/*
+ * Copyright (C) 2015 Jeremy Wildsmith.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+package io.github.jevaengine.rpg;
+
+import io.github.jevaengine.rpg.AttributeSet.IAttributeSetObserver;
+import io.github.jevaengine.util.IObserverRegistry;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * An attribute set whose values are the sum of a stack of layers (e.g. base statistics, equipped
+ * items and buffs). This yields the same values as {@link AttributeSet#overlay(AttributeSet...)},
+ * but rather than re-merging every layer, a change to a layer only dirties the totals of the
+ * attributes it touches. Dirty totals are recomputed when read, or immediately if the respective
+ * attribute is being observed, in which case observers are notified only if the effective value
+ * actually changed.
+ *
+ * @author Jeremy
+ */
+public final class AttributeStack implements IImmutableAttributeSet
+{
+	private final List<AttributeSet> m_layers = new ArrayList<>();
+	private final LayerObserver m_layerObserver = new LayerObserver();
+	private final DirtyVisitor m_dirtyVisitor = new DirtyVisitor();
+
+	private float[] m_totals;
+	private long[] m_present;
+	private long[] m_dirty;
+	private StackAttribute[] m_attributes;
+
+	public AttributeStack(AttributeSet ... layers)
+	{
+		int capacity = AttributeRegistry.getCount();
+
+		m_totals = new float[capacity];
+		m_present = new long[words(capacity)];
+		m_dirty = new long[words(capacity)];
+		m_attributes = new StackAttribute[capacity];
+
+		for(AttributeSet l : layers)
+			addLayer(l);
+	}
+
+	private static int words(int capacity)
+	{
+		return (capacity + Long.SIZE - 1) / Long.SIZE;
+	}
+
+	private void ensureCapacity(int id)
+	{
+		if(id < m_totals.length)
+			return;
+
+		int capacity = Math.max(id + 1, AttributeRegistry.getCount());
+
+		m_totals = Arrays.copyOf(m_totals, capacity);
+		m_attributes = Arrays.copyOf(m_attributes, capacity);
+		m_present = Arrays.copyOf(m_present, words(capacity));
+		m_dirty = Arrays.copyOf(m_dirty, words(capacity));
+	}
+
+	private static boolean isSet(long[] bits, int id)
+	{
+		return (bits[id / Long.SIZE] & (1L << id)) != 0;
+	}
+
+	private boolean isObserved(int id)
+	{
+		StackAttribute attribute = m_attributes[id];
+		return attribute != null && attribute.m_observers != null;
+	}
+
+	private void invalidate(int id)
+	{
+		ensureCapacity(id);
+
+		if(isObserved(id))
+			refresh(id);
+		else
+			m_dirty[id / Long.SIZE] |= 1L << id;
+	}
+
+	private void refresh(int id)
+	{
+		m_dirty[id / Long.SIZE] &= ~(1L << id);
+
+		float total = 0;
+		boolean present = false;
+
+		for(int i = 0; i < m_layers.size(); i++)
+		{
+			AttributeSet layer = m_layers.get(i);
+
+			if(layer.has(id))
+			{
+				present = true;
+				total += layer.getValue(id);
+			}
+		}
+
+		if(present)
+			m_present[id / Long.SIZE] |= 1L << id;
+		else
+			m_present[id / Long.SIZE] &= ~(1L << id);
+
+		float old = m_totals[id];
+		m_totals[id] = total;
+
+		if(old != total && isObserved(id))
+		{
+			for(IAttributeChangeObserver o : m_attributes[id].m_observers.get())
+				o.changed(total - old);
+		}
+	}
+
+	private void refreshDirty()
+	{
+		for(int word = 0; word < m_dirty.length; word++)
+		{
+			for(long bits = m_dirty[word]; bits != 0; bits &= bits - 1)
+				refresh(word * Long.SIZE + Long.numberOfTrailingZeros(bits));
+		}
+	}
+
+	private float getTotal(int id)
+	{
+		if(id >= m_totals.length)
+			return 0;
+
+		if(isSet(m_dirty, id))
+			refresh(id);
+
+		return m_totals[id];
+	}
+
+	private int occurrences(AttributeSet layer)
+	{
+		int count = 0;
+
+		for(AttributeSet l : m_layers)
+		{
+			if(l == layer)
+				count++;
+		}
+
+		return count;
+	}
+
+	public void addLayer(AttributeSet layer)
+	{
+		if(occurrences(layer) == 0)
+			layer.getObservers().add(m_layerObserver);
+
+		m_layers.add(layer);
+		layer.forEach(m_dirtyVisitor);
+	}
+
+	public void removeLayer(AttributeSet layer)
+	{
+		if(!m_layers.remove(layer))
+			return;
+
+		if(occurrences(layer) == 0)
+			layer.getObservers().remove(m_layerObserver);
+
+		layer.forEach(m_dirtyVisitor);
+	}
+
+	/**
+	 * Removes every layer, detaching this stack from the sets it observes. Stacks layering sets
+	 * which outlive them (e.g. those of items) must be cleared once they are no longer used.
+	 */
+	public void clear()
+	{
+		while(!m_layers.isEmpty())
+			removeLayer(m_layers.get(m_layers.size() - 1));
+	}
+
+	public boolean has(int id)
+	{
+		if(id < 0 || id >= m_totals.length)
+			return false;
+
+		if(isSet(m_dirty, id))
+			refresh(id);
+
+		return isSet(m_present, id);
+	}
+
+	@Override
+	public boolean has(IAttributeIdentifier attribute)
+	{
+		return has(AttributeRegistry.getId(attribute));
+	}
+
+	@Override
+	public boolean has(String name)
+	{
+		return has(AttributeRegistry.lookup(name));
+	}
+
+	public IImmutableAttribute get(int id)
+	{
+		ensureCapacity(id);
+
+		StackAttribute attribute = m_attributes[id];
+
+		if(attribute == null)
+		{
+			attribute = new StackAttribute(id);
+			m_attributes[id] = attribute;
+		}
+
+		return attribute;
+	}
+
+	@Override
+	public IImmutableAttribute get(IAttributeIdentifier attribute)
+	{
+		return get(AttributeRegistry.getId(attribute));
+	}
+
+	@Override
+	public IImmutableAttribute get(String name)
+	{
+		return get(AttributeRegistry.getId(name));
+	}
+
+	@Override
+	public void forEach(IAttributeVisitor visitor)
+	{
+		refreshDirty();
+
+		for(int word = 0; word < m_present.length; word++)
+		{
+			for(long bits = m_present[word]; bits != 0; bits &= bits - 1)
+			{
+				int id = word * Long.SIZE + Long.numberOfTrailingZeros(bits);
+				visitor.visit(id, m_totals[id]);
+			}
+		}
+	}
+
+	@Override
+	public Set<Map.Entry<IAttributeIdentifier, IImmutableAttribute>> getSet()
+	{
+		final Map<IAttributeIdentifier, IImmutableAttribute> buffer = new HashMap<>();
+
+		forEach(new IAttributeVisitor() {
+			@Override
+			public void visit(int id, float value)
+			{
+				buffer.put(AttributeRegistry.getIdentifier(id), new AttributeSet.ImmutableAttribute(value));
+			}
+		});
+
+		return Collections.unmodifiableMap(buffer).entrySet();
+	}
+
+	private final class LayerObserver implements IAttributeSetObserver
+	{
+		@Override
+		public void changed(int id, float delta)
+		{
+			invalidate(id);
+		}
+	}
+
+	private final class DirtyVisitor implements IAttributeVisitor
+	{
+		@Override
+		public void visit(int id, float value)
+		{
+			invalidate(id);
+		}
+	}
+
+	private final class StackAttribute implements IImmutableAttribute
+	{
+		private final int m_id;
+		private ObserverList<IAttributeChangeObserver> m_observers;
+
+		public StackAttribute(int id)
+		{
+			m_id = id;
+		}
+
+		@Override
+		public float get()
+		{
+			return getTotal(m_id);
+		}
+
+		@Override
+		public boolean isZero()
+		{
+			return Math.abs(getTotal(m_id)) < 0.00001F;
+		}
+
+		@Override
+		public IObserverRegistry getObservers()
+		{
+			if(m_observers == null)
+			{
+				getTotal(m_id);
+				m_observers = new ObserverList<>(IAttributeChangeObserver.class);
+			}
+
+			return m_observers;
+		}
+	}
+}
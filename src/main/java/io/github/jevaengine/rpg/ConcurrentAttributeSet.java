@@ -0,0 +1,445 @@
+/*
+ * Copyright (C) 2015 Jeremy Wildsmith.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+package io.github.jevaengine.rpg;
+
+import io.github.jevaengine.rpg.AttributeSnapshot.Chunk;
+import io.github.jevaengine.util.IObserverRegistry;
+import io.github.jevaengine.util.NullObservers;
+import io.github.jevaengine.util.Nullable;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * An attribute set which may be read and written from any thread. Values are stored as the bits of
+ * a float in atomic integer arrays, so reads are lock-free and updates are applied atomically via
+ * compare-and-swap. Unlike {@link AttributeSet}, reading an attribute never inserts it.
+ *
+ * Individual reads are always consistent; {@link #snapshot()} additionally provides a consistent
+ * view of all attributes at once. Change observers are not supported.
+ *
+ * @author Jeremy
+ */
+public final class ConcurrentAttributeSet implements IImmutableAttributeSet
+{
+	private static final int CHUNK_SIZE = Chunk.SIZE;
+	private static final int SNAPSHOT_SPIN_LIMIT = 16;
+
+	//A NaN which Float.floatToIntBits never produces, since it collapses all NaNs to one canonical value.
+	private static final int ABSENT = 0xFFC00001;
+
+	private volatile AtomicIntegerArray[] m_chunks = new AtomicIntegerArray[0];
+
+	private final AtomicLong m_writesStarted = new AtomicLong();
+	private final AtomicLong m_writesCompleted = new AtomicLong();
+
+	//Held by a snapshot which could not complete optimistically, while writers are gated.
+	private final Object m_writeGate = new Object();
+	private volatile boolean m_isWriteGated = false;
+
+	public ConcurrentAttributeSet() { }
+
+	public ConcurrentAttributeSet(IImmutableAttributeSet src)
+	{
+		setAll(src);
+	}
+
+	private AtomicIntegerArray getChunk(int id)
+	{
+		AtomicIntegerArray[] chunks = m_chunks;
+		int index = id / CHUNK_SIZE;
+
+		return id < 0 || index >= chunks.length ? null : chunks[index];
+	}
+
+	private AtomicIntegerArray createChunk(int id)
+	{
+		AtomicIntegerArray chunk = getChunk(id);
+
+		if(chunk != null)
+			return chunk;
+
+		synchronized(this)
+		{
+			int index = id / CHUNK_SIZE;
+			AtomicIntegerArray[] chunks = m_chunks;
+
+			if(index >= chunks.length)
+				chunks = Arrays.copyOf(chunks, Math.max(index + 1, (AttributeRegistry.getCount() + CHUNK_SIZE - 1) / CHUNK_SIZE));
+			else if(chunks[index] != null)
+				return chunks[index];
+			else
+				chunks = chunks.clone();
+
+			chunk = new AtomicIntegerArray(CHUNK_SIZE);
+
+			for(int i = 0; i < CHUNK_SIZE; i++)
+				chunk.set(i, ABSENT);
+
+			chunks[index] = chunk;
+			m_chunks = chunks;
+
+			return chunk;
+		}
+	}
+
+	private void beginWrite()
+	{
+		if(m_isWriteGated)
+		{
+			//Wait for the gating snapshot to complete.
+			synchronized(m_writeGate) { }
+		}
+
+		m_writesStarted.incrementAndGet();
+	}
+
+	private static float toFloat(int bits)
+	{
+		return bits == ABSENT ? 0 : Float.intBitsToFloat(bits);
+	}
+
+	public boolean has(int id)
+	{
+		AtomicIntegerArray chunk = getChunk(id);
+
+		return chunk != null && chunk.get(id % CHUNK_SIZE) != ABSENT;
+	}
+
+	public float getValue(int id)
+	{
+		AtomicIntegerArray chunk = getChunk(id);
+
+		return chunk == null ? 0 : toFloat(chunk.get(id % CHUNK_SIZE));
+	}
+
+	public void set(int id, float value)
+	{
+		beginWrite();
+
+		try
+		{
+			createChunk(id).set(id % CHUNK_SIZE, Float.floatToIntBits(value));
+		} finally
+		{
+			m_writesCompleted.incrementAndGet();
+		}
+	}
+
+	/**
+	 * Atomically adds delta to the value of the given attribute.
+	 *
+	 * @return The new value of the attribute.
+	 */
+	public float add(int id, float delta)
+	{
+		beginWrite();
+
+		try
+		{
+			AtomicIntegerArray chunk = createChunk(id);
+			int offset = id % CHUNK_SIZE;
+
+			while(true)
+			{
+				int current = chunk.get(offset);
+				float value = toFloat(current) + delta;
+
+				if(chunk.compareAndSet(offset, current, Float.floatToIntBits(value)))
+					return value;
+			}
+		} finally
+		{
+			m_writesCompleted.incrementAndGet();
+		}
+	}
+
+	public boolean compareAndSet(int id, float expect, float update)
+	{
+		beginWrite();
+
+		try
+		{
+			AtomicIntegerArray chunk = createChunk(id);
+			int offset = id % CHUNK_SIZE;
+			int current = chunk.get(offset);
+
+			if(toFloat(current) != expect)
+				return false;
+
+			return chunk.compareAndSet(offset, current, Float.floatToIntBits(update));
+		} finally
+		{
+			m_writesCompleted.incrementAndGet();
+		}
+	}
+
+	/**
+	 * Writes all attributes of the source set. Concurrent {@link #snapshot()}s observe either none
+	 * or all of these writes.
+	 */
+	public void setAll(IImmutableAttributeSet src)
+	{
+		beginWrite();
+
+		try
+		{
+			src.forEach(new IAttributeVisitor() {
+				@Override
+				public void visit(int id, float value)
+				{
+					createChunk(id).set(id % CHUNK_SIZE, Float.floatToIntBits(value));
+				}
+			});
+		} finally
+		{
+			m_writesCompleted.incrementAndGet();
+		}
+	}
+
+	/**
+	 * Captures a consistent view of all attributes in this set, retrying if a write occurs while
+	 * the attributes are being read. If writes keep interleaving with the read, further writers
+	 * are held off until the snapshot completes.
+	 */
+	public AttributeSnapshot snapshot()
+	{
+		for(int attempt = 0; attempt < SNAPSHOT_SPIN_LIMIT; attempt++)
+		{
+			AttributeSnapshot snapshot = tryRead();
+
+			if(snapshot != null)
+				return snapshot;
+		}
+
+		synchronized(m_writeGate)
+		{
+			m_isWriteGated = true;
+
+			try
+			{
+				//Only writers which passed the gate before it closed remain, each with at most one write.
+				while(true)
+				{
+					AttributeSnapshot snapshot = tryRead();
+
+					if(snapshot != null)
+						return snapshot;
+
+					Thread.yield();
+				}
+			} finally
+			{
+				m_isWriteGated = false;
+			}
+		}
+	}
+
+	@Nullable
+	private AttributeSnapshot tryRead()
+	{
+		long completed = m_writesCompleted.get();
+		long started = m_writesStarted.get();
+
+		if(started != completed)
+			return null;
+
+		Chunk[] chunks = read();
+
+		return m_writesStarted.get() == started ? new AttributeSnapshot(chunks) : null;
+	}
+
+	private Chunk[] read()
+	{
+		AtomicIntegerArray[] source = m_chunks;
+		Chunk[] chunks = new Chunk[source.length];
+
+		for(int index = 0; index < source.length; index++)
+		{
+			if(source[index] == null)
+				continue;
+
+			Chunk chunk = new Chunk(null);
+
+			for(int offset = 0; offset < CHUNK_SIZE; offset++)
+			{
+				int bits = source[index].get(offset);
+
+				if(bits != ABSENT)
+				{
+					chunk.values[offset] = Float.intBitsToFloat(bits);
+					chunk.present |= 1L << offset;
+				}
+			}
+
+			chunks[index] = chunk;
+		}
+
+		return chunks;
+	}
+
+	/**
+	 * Visits each attribute. Each value visited is read atomically, but the set as a whole is
+	 * not; use {@link #snapshot()} where a consistent view is required.
+	 */
+	@Override
+	public void forEach(IAttributeVisitor visitor)
+	{
+		AtomicIntegerArray[] chunks = m_chunks;
+
+		for(int index = 0; index < chunks.length; index++)
+		{
+			if(chunks[index] == null)
+				continue;
+
+			for(int offset = 0; offset < CHUNK_SIZE; offset++)
+			{
+				int bits = chunks[index].get(offset);
+
+				if(bits != ABSENT)
+					visitor.visit(index * CHUNK_SIZE + offset, Float.intBitsToFloat(bits));
+			}
+		}
+	}
+
+	@Override
+	public boolean has(IAttributeIdentifier attribute)
+	{
+		int id = AttributeRegistry.lookup(attribute);
+
+		return id != AttributeRegistry.UNREGISTERED && has(id);
+	}
+
+	@Override
+	public boolean has(String name)
+	{
+		int id = AttributeRegistry.lookup(name);
+
+		return id != AttributeRegistry.UNREGISTERED && has(id);
+	}
+
+	public IAttribute get(int id)
+	{
+		return new ConcurrentAttribute(id);
+	}
+
+	@Override
+	public IAttribute get(IAttributeIdentifier attribute)
+	{
+		int id = AttributeRegistry.lookup(attribute);
+
+		return id == AttributeRegistry.UNREGISTERED ? new UnregisteredAttribute(attribute.getName(), attribute) : get(id);
+	}
+
+	@Override
+	public IAttribute get(String name)
+	{
+		int id = AttributeRegistry.lookup(name);
+
+		return id == AttributeRegistry.UNREGISTERED ? new UnregisteredAttribute(name, null) : get(id);
+	}
+
+	@Override
+	public Set<Map.Entry<IAttributeIdentifier, IImmutableAttribute>> getSet()
+	{
+		return snapshot().getSet();
+	}
+
+	private final class ConcurrentAttribute implements IAttribute
+	{
+		private final int m_id;
+
+		public ConcurrentAttribute(int id)
+		{
+			m_id = id;
+		}
+
+		@Override
+		public float get()
+		{
+			return getValue(m_id);
+		}
+
+		@Override
+		public boolean isZero()
+		{
+			return Math.abs(getValue(m_id)) < 0.00001F;
+		}
+
+		@Override
+		public void set(float value)
+		{
+			ConcurrentAttributeSet.this.set(m_id, value);
+		}
+
+		@Override
+		public IObserverRegistry getObservers()
+		{
+			return new NullObservers();
+		}
+	}
+
+	/**
+	 * An attribute which has not been registered. It reads as absent, and is only registered once written.
+	 */
+	private final class UnregisteredAttribute implements IAttribute
+	{
+		private final String m_name;
+
+		@Nullable
+		private final IAttributeIdentifier m_identifier;
+
+		public UnregisteredAttribute(String name, @Nullable IAttributeIdentifier identifier)
+		{
+			m_name = name;
+			m_identifier = identifier;
+		}
+
+		@Override
+		public float get()
+		{
+			int id = AttributeRegistry.lookup(m_name);
+
+			return id == AttributeRegistry.UNREGISTERED ? 0 : getValue(id);
+		}
+
+		@Override
+		public boolean isZero()
+		{
+			return Math.abs(get()) < 0.00001F;
+		}
+
+		@Override
+		public void set(float value)
+		{
+			int id = m_identifier == null ? AttributeRegistry.getId(m_name) : AttributeRegistry.getId(m_identifier);
+
+			ConcurrentAttributeSet.this.set(id, value);
+		}
+
+		@Override
+		public IObserverRegistry getObservers()
+		{
+			return new NullObservers();
+		}
+	}
+}
@@ -32,8 +32,32 @@ public interface IImmutableAttributeSet
 	IImmutableAttribute get(IAttributeIdentifier attribute);
 	IImmutableAttribute get(String name);
 	
+	/**
+	 * Provides an attribute for reading and observing without modifying this set, whereas
+	 * {@link #get(IAttributeIdentifier)} may add an absent attribute.
+	 */
+	default IImmutableAttribute view(IAttributeIdentifier attribute)
+	{
+		return get(attribute);
+	}
+	
 	Set<Map.Entry<IAttributeIdentifier, IImmutableAttribute>> getSet();
 	
+	/**
+	 * Visits every attribute in this set by its {@link AttributeRegistry} id. Unlike
+	 * {@link #getSet()}, implementations are expected not to allocate.
+	 */
+	default void forEach(IAttributeVisitor visitor)
+	{
+		for(Map.Entry<IAttributeIdentifier, IImmutableAttribute> a : getSet())
+			visitor.visit(AttributeRegistry.getId(a.getKey()), a.getValue().get());
+	}
+	
+	public interface IAttributeVisitor
+	{
+		void visit(int id, float value);
+	}
+	
 	public interface IAttributeIdentifier
 	{
 		String getName();
@@ -0,0 +1,127 @@
+/*
+ * Copyright (C) 2015 Jeremy Wildsmith.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+package io.github.jevaengine.rpg;
+
+import io.github.jevaengine.util.IObserverRegistry;
+import io.github.jevaengine.util.NullObservers;
+
+import java.lang.reflect.Array;
+
+/**
+ * An observer registry for a single observer interface. Rather than raising events through a
+ * proxy, observers are notified by looping over the array returned by {@link #get()}:
+ *
+ * <pre>
+ * for(IItemStoreObserver o : m_observers.get())
+ *     o.addItem(index, item);
+ * </pre>
+ *
+ * The array is replaced (never modified) when observers are added or removed, so observers may
+ * safely add or remove observers while being notified. As with {@link io.github.jevaengine.util.Observers},
+ * adding an observer which is already registered has no effect, so a single removal unregisters it.
+ *
+ * Objects which do not implement the observed interface are ignored, unless a next registry is
+ * provided, in which case every object is also registered there. Chaining registries allows a
+ * class raising several observer interfaces to expose a single registry.
+ *
+ * @author Jeremy
+ */
+public final class ObserverList<T> implements IObserverRegistry
+{
+	private final Class<T> m_type;
+	private final IObserverRegistry m_next;
+
+	private T[] m_observers;
+
+	public ObserverList(Class<T> type, IObserverRegistry next)
+	{
+		m_type = type;
+		m_next = next;
+		m_observers = newArray(0);
+	}
+
+	public ObserverList(Class<T> type)
+	{
+		this(type, new NullObservers());
+	}
+
+	@SuppressWarnings("unchecked")
+	private T[] newArray(int length)
+	{
+		return (T[])Array.newInstance(m_type, length);
+	}
+
+	/**
+	 * @return The current observers. The returned array must not be modified.
+	 */
+	public T[] get()
+	{
+		return m_observers;
+	}
+
+	public boolean isEmpty()
+	{
+		return m_observers.length == 0;
+	}
+
+	@Override
+	public void add(Object o)
+	{
+		m_next.add(o);
+
+		if(!m_type.isInstance(o))
+			return;
+
+		for(T observer : m_observers)
+		{
+			if(observer == o)
+				return;
+		}
+
+		T[] observers = newArray(m_observers.length + 1);
+		System.arraycopy(m_observers, 0, observers, 0, m_observers.length);
+		observers[m_observers.length] = m_type.cast(o);
+
+		m_observers = observers;
+	}
+
+	@Override
+	public void remove(Object o)
+	{
+		m_next.remove(o);
+
+		for(int i = 0; i < m_observers.length; i++)
+		{
+			if(m_observers[i] != o)
+				continue;
+
+			T[] observers = newArray(m_observers.length - 1);
+			System.arraycopy(m_observers, 0, observers, 0, i);
+			System.arraycopy(m_observers, i + 1, observers, i, m_observers.length - i - 1);
+
+			m_observers = observers;
+			return;
+		}
+	}
+
+	public void clear()
+	{
+		m_observers = newArray(0);
+	}
+}
@@ -0,0 +1,244 @@
+/*
+ * Copyright (C) 2015 Jeremy Wildsmith.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+package io.github.jevaengine.rpg;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A hierarchical timer wheel. Scheduling and cancelling a timer is O(1), and advancing the wheel
+ * costs O(1) per elapsed tick plus the number of timers which expire (or cascade down a level),
+ * independent of the total number of timers scheduled.
+ *
+ * A wheel may be shared by many owners (e.g. every character of a scheduler), and timers may be
+ * scheduled and cancelled from any thread. Timers expire on the thread which advances the wheel,
+ * after it has released the wheel, so expiry tasks may schedule and cancel timers freely.
+ *
+ * @author Jeremy
+ */
+public final class TimerWheel
+{
+	private static final int DEFAULT_RESOLUTION = 10;
+
+	private static final int SLOT_BITS = 6;
+	private static final int SLOTS = 1 << SLOT_BITS;
+	private static final int SLOT_MASK = SLOTS - 1;
+	private static final int LEVELS = 4;
+
+	private final int m_resolution;
+	private final Timer[][] m_slots = new Timer[LEVELS][SLOTS];
+
+	private long m_tick = 0;
+	private int m_pendingTime = 0;
+	private int m_count = 0;
+
+	public TimerWheel(int resolution)
+	{
+		m_resolution = resolution;
+	}
+
+	public TimerWheel()
+	{
+		this(DEFAULT_RESOLUTION);
+	}
+
+	public synchronized int getScheduledCount()
+	{
+		return m_count;
+	}
+
+	public synchronized Timer schedule(int delay, ITimerTask task)
+	{
+		Timer timer = new Timer(task);
+
+		long ticks = Math.max(1, (delay + m_pendingTime + m_resolution - 1) / m_resolution);
+		timer.m_expiry = m_tick + ticks;
+
+		insert(timer);
+		m_count++;
+
+		return timer;
+	}
+
+	private void insert(Timer timer)
+	{
+		long remaining = Math.max(1, timer.m_expiry - m_tick);
+		long expiry = timer.m_expiry;
+
+		int level = 0;
+
+		while(level < LEVELS - 1 && remaining >= (1L << (SLOT_BITS * (level + 1))))
+			level++;
+
+		if(remaining >= (1L << (SLOT_BITS * LEVELS)))
+			expiry = m_tick + (1L << (SLOT_BITS * LEVELS)) - 1;
+
+		int slot = (int)((expiry >>> (SLOT_BITS * level)) & SLOT_MASK);
+
+		timer.m_level = level;
+		timer.m_slot = slot;
+		timer.m_previous = null;
+		timer.m_next = m_slots[level][slot];
+
+		if(timer.m_next != null)
+			timer.m_next.m_previous = timer;
+
+		m_slots[level][slot] = timer;
+	}
+
+	private void unlink(Timer timer)
+	{
+		if(timer.m_previous != null)
+			timer.m_previous.m_next = timer.m_next;
+		else
+			m_slots[timer.m_level][timer.m_slot] = timer.m_next;
+
+		if(timer.m_next != null)
+			timer.m_next.m_previous = timer.m_previous;
+
+		timer.m_previous = null;
+		timer.m_next = null;
+	}
+
+	private void cascade(int level)
+	{
+		int slot = (int)((m_tick >>> (SLOT_BITS * level)) & SLOT_MASK);
+
+		Timer timer = m_slots[level][slot];
+		m_slots[level][slot] = null;
+
+		while(timer != null)
+		{
+			Timer next = timer.m_next;
+			insert(timer);
+			timer = next;
+		}
+	}
+
+	private void tick(List<Timer> expired)
+	{
+		m_tick++;
+
+		for(int level = 1; level < LEVELS; level++)
+		{
+			if((m_tick & ((1L << (SLOT_BITS * level)) - 1)) != 0)
+				break;
+
+			cascade(level);
+		}
+
+		int slot = (int)(m_tick & SLOT_MASK);
+
+		while(m_slots[0][slot] != null)
+		{
+			Timer timer = m_slots[0][slot];
+			unlink(timer);
+
+			if(timer.m_expiry > m_tick)
+			{
+				insert(timer);
+				continue;
+			}
+
+			timer.m_isScheduled = false;
+			m_count--;
+			expired.add(timer);
+		}
+	}
+
+	public void update(int deltaTime)
+	{
+		List<Timer> expired;
+
+		synchronized(this)
+		{
+			m_pendingTime += deltaTime;
+
+			if(m_count == 0)
+			{
+				m_tick += m_pendingTime / m_resolution;
+				m_pendingTime %= m_resolution;
+				return;
+			}
+
+			expired = new ArrayList<>();
+
+			while(m_pendingTime >= m_resolution)
+			{
+				m_pendingTime -= m_resolution;
+				tick(expired);
+			}
+		}
+
+		for(Timer t : expired)
+		{
+			//A timer may be cancelled by a task which expired before it in this update.
+			if(!t.m_isCancelled)
+				t.m_task.expired();
+		}
+	}
+
+	public interface ITimerTask
+	{
+		void expired();
+	}
+
+	public final class Timer
+	{
+		private final ITimerTask m_task;
+
+		private long m_expiry;
+		private int m_level;
+		private int m_slot;
+
+		private Timer m_previous;
+		private Timer m_next;
+
+		private boolean m_isScheduled = true;
+		private volatile boolean m_isCancelled = false;
+
+		private Timer(ITimerTask task)
+		{
+			m_task = task;
+		}
+
+		public boolean isScheduled()
+		{
+			synchronized(TimerWheel.this)
+			{
+				return m_isScheduled;
+			}
+		}
+
+		public void cancel()
+		{
+			m_isCancelled = true;
+
+			synchronized(TimerWheel.this)
+			{
+				if(!m_isScheduled)
+					return;
+
+				m_isScheduled = false;
+				unlink(this);
+				m_count--;
+			}
+		}
+	}
+}
@@ -18,16 +18,18 @@
  */
 package io.github.jevaengine.rpg.dialogue;
 
+import io.github.jevaengine.rpg.ObserverList;
 import io.github.jevaengine.util.IObserverRegistry;
 import io.github.jevaengine.util.Nullable;
-import io.github.jevaengine.util.Observers;
 import io.github.jevaengine.world.entity.IEntity;
 
 public final class DialogueSession implements IDialogueListenerSession, IDialogueSpeakerSession
 {
 	private IDialogueSessionController m_dialogueSessionController;
 
-	private Observers m_observers = new Observers();
+	private final ObserverList<IDialogueSpeakerSessionObserver> m_speakerObservers = new ObserverList<>(IDialogueSpeakerSessionObserver.class);
+	private final ObserverList<IDialogueListenerSessionObserver> m_listenerObservers = new ObserverList<>(IDialogueListenerSessionObserver.class, m_speakerObservers);
+
 	private DialogueQuery m_currentQuery;
 	
 	public DialogueSession(IDialogueSessionController route)
@@ -45,16 +47,22 @@ public final class DialogueSession implements IDialogueListenerSession, IDialogu
 
 		if(m_currentQuery == null)
 		{
-			m_observers.raise(IDialogueSpeakerSessionObserver.class).end();
-			m_observers.raise(IDialogueListenerSessionObserver.class).end();
+			for(IDialogueSpeakerSessionObserver o : m_speakerObservers.get())
+				o.end();
+
+			for(IDialogueListenerSessionObserver o : m_listenerObservers.get())
+				o.end();
 		}else
-			m_observers.raise(IDialogueListenerSessionObserver.class).speakerInquired(query);
+		{
+			for(IDialogueListenerSessionObserver o : m_listenerObservers.get())
+				o.speakerInquired(query);
+		}
 	}
 	
 	@Override
 	public IObserverRegistry getObservers()
 	{
-		return m_observers;
+		return m_listenerObservers;
 	}
 
 	@Override
@@ -62,7 +70,9 @@ public final class DialogueSession implements IDialogueListenerSession, IDialogu
 	{
 		if(m_dialogueSessionController.parseAnswer(answer))
 		{
-			m_observers.raise(IDialogueSpeakerSessionObserver.class).listenerSaid(answer);
+			for(IDialogueSpeakerSessionObserver o : m_speakerObservers.get())
+				o.listenerSaid(answer);
+
 			setQuery(m_dialogueSessionController.getCurrentQuery());	
 		}
 	}
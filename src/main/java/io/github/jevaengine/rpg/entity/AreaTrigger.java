@@ -19,6 +19,7 @@
 package io.github.jevaengine.rpg.entity;
 
 import io.github.jevaengine.math.Rect3F;
+import io.github.jevaengine.rpg.ObserverList;
 import io.github.jevaengine.rpg.entity.character.IRpgCharacter;
 import io.github.jevaengine.script.IFunctionFactory;
 import io.github.jevaengine.script.IScriptBuilder;
@@ -54,6 +55,7 @@ public final class AreaTrigger implements IEntity
 	private final Logger m_logger = LoggerFactory.getLogger(AreaTrigger.class);
 
 	private final Observers m_observers = new Observers();
+	private final ObserverList<IAreaTriggerAreaObserver> m_areaObservers = new ObserverList<>(IAreaTriggerAreaObserver.class, m_observers);
 
 	private World m_world;
 	
@@ -80,7 +82,7 @@ public final class AreaTrigger implements IEntity
 			m_logger.error("Unable to instantiate behavior for entity " + name + " defaulting to null behavior.", e);
 		}
 
-		m_observers.add(new BridgeNotifier());
+		m_areaObservers.add(new BridgeNotifier());
 	}
 
 	@Override
@@ -91,6 +93,7 @@ public final class AreaTrigger implements IEntity
 		
 		m_includedEntities.clear();
 		m_observers.clear();
+		m_areaObservers.clear();
 	}
 	
 	@Override
@@ -151,7 +154,11 @@ public final class AreaTrigger implements IEntity
 			if (!unfoundCharacters.contains(character))
 			{
 				m_includedEntities.add(character);
-				m_observers.raise(IAreaTriggerAreaObserver.class).enter(character);
+				character.wake();
+
+				for(IAreaTriggerAreaObserver o : m_areaObservers.get())
+					o.enter(character);
+
 				character.getObservers().add(new TriggerCharacterObserver(character));
 			} else
 			{
@@ -162,7 +169,10 @@ public final class AreaTrigger implements IEntity
 		for (IRpgCharacter character : unfoundCharacters)
 		{
 			m_includedEntities.remove(character);
-			m_observers.raise(IAreaTriggerAreaObserver.class).leave(character);
+			character.wake();
+
+			for(IAreaTriggerAreaObserver o : m_areaObservers.get())
+				o.leave(character);
 		}
 	}
 	
@@ -193,7 +203,7 @@ public final class AreaTrigger implements IEntity
 	@Override
 	public IObserverRegistry getObservers()
 	{
-		return m_observers;
+		return m_areaObservers;
 	}
 	
 	@Override
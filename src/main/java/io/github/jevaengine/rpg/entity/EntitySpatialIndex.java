@@ -0,0 +1,391 @@
+/*
+ * Copyright (C) 2015 Jeremy Wildsmith.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+package io.github.jevaengine.rpg.entity;
+
+import io.github.jevaengine.math.Vector3F;
+import io.github.jevaengine.world.World;
+import io.github.jevaengine.world.entity.IEntity;
+import io.github.jevaengine.world.entity.IEntity.IEntityWorldObserver;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A uniform grid of entities, shared by the queries which need to find entities near a location
+ * (e.g. vision) so that each does not scan every entity of the world. Entities are placed in cells
+ * by the location of their body when added, and when {@link #update()} is invoked, which must be
+ * done once per frame before the index is queried.
+ *
+ * Every cell carries a version which changes whenever an entity enters or leaves it, so queries
+ * can cache their results until the cells they cover change. Entities are dropped from the index
+ * when they leave their world.
+ *
+ * Queries may be made concurrently, provided the index is not modified meanwhile (e.g. from the
+ * perception phase of the {@link io.github.jevaengine.rpg.entity.character.RpgCharacterUpdateScheduler}).
+ * Modifications are synchronized, as entities of different worlds may leave them concurrently.
+ *
+ * Cells may also be watched, e.g. by dormant characters which need to wake when an entity comes
+ * near; watchers are notified whenever an entity enters or leaves a watched cell. Watching is
+ * synchronized separately, and so may be done while the index is being queried.
+ *
+ * @author Jeremy
+ */
+public final class EntitySpatialIndex
+{
+	private static final IEntity[] EMPTY = new IEntity[0];
+
+	private final float m_cellSize;
+
+	private final Map<World, Map<Long, Cell>> m_worlds = new IdentityHashMap<>();
+	private final Map<IEntity, Entry> m_entries = new HashMap<>();
+
+	//Entries of entities that left their world, still registered with the entities' observers.
+	private final List<Entry> m_detached = new ArrayList<>();
+
+	private int m_nextVersion = 1;
+
+	private final Map<World, Map<Long, List<ICellObserver>>> m_watchers = new IdentityHashMap<>();
+
+	public EntitySpatialIndex(float cellSize)
+	{
+		m_cellSize = cellSize;
+	}
+
+	public float getCellSize()
+	{
+		return m_cellSize;
+	}
+
+	public int toCell(float coordinate)
+	{
+		return (int)Math.floor(coordinate / m_cellSize);
+	}
+
+	private static long getKey(int cellX, int cellY)
+	{
+		return ((long)cellX << 32) | (cellY & 0xFFFFFFFFL);
+	}
+
+	private void removeDetached()
+	{
+		for(Entry e : m_detached)
+			e.m_entity.getObservers().remove(e);
+
+		m_detached.clear();
+	}
+
+	public synchronized void add(IEntity entity)
+	{
+		removeDetached();
+
+		if(m_entries.containsKey(entity))
+			return;
+
+		Entry entry = new Entry(entity);
+		m_entries.put(entity, entry);
+		entity.getObservers().add(entry);
+		entry.refresh();
+	}
+
+	public synchronized void remove(IEntity entity)
+	{
+		removeDetached();
+
+		Entry entry = m_entries.remove(entity);
+
+		if(entry == null)
+			return;
+
+		entity.getObservers().remove(entry);
+		entry.detach();
+	}
+
+	public synchronized boolean contains(IEntity entity)
+	{
+		return m_entries.containsKey(entity);
+	}
+
+	public synchronized int size()
+	{
+		return m_entries.size();
+	}
+
+	/**
+	 * Moves entities which have crossed into another cell since the last update.
+	 */
+	public synchronized void update()
+	{
+		removeDetached();
+
+		for(Entry e : m_entries.values())
+			e.refresh();
+	}
+
+	/**
+	 * Watches the square of cells within range of the given cell.
+	 */
+	public void watch(World world, int cellX, int cellY, int range, ICellObserver observer)
+	{
+		synchronized(m_watchers)
+		{
+			Map<Long, List<ICellObserver>> cells = m_watchers.get(world);
+
+			if(cells == null)
+			{
+				cells = new HashMap<>();
+				m_watchers.put(world, cells);
+			}
+
+			for(int y = cellY - range; y <= cellY + range; y++)
+			{
+				for(int x = cellX - range; x <= cellX + range; x++)
+				{
+					List<ICellObserver> observers = cells.get(getKey(x, y));
+
+					if(observers == null)
+					{
+						observers = new ArrayList<>(1);
+						cells.put(getKey(x, y), observers);
+					}
+
+					observers.add(observer);
+				}
+			}
+		}
+	}
+
+	public void unwatch(World world, int cellX, int cellY, int range, ICellObserver observer)
+	{
+		synchronized(m_watchers)
+		{
+			Map<Long, List<ICellObserver>> cells = m_watchers.get(world);
+
+			if(cells == null)
+				return;
+
+			for(int y = cellY - range; y <= cellY + range; y++)
+			{
+				for(int x = cellX - range; x <= cellX + range; x++)
+				{
+					List<ICellObserver> observers = cells.get(getKey(x, y));
+
+					if(observers == null)
+						continue;
+
+					observers.remove(observer);
+
+					if(observers.isEmpty())
+						cells.remove(getKey(x, y));
+				}
+			}
+
+			if(cells.isEmpty())
+				m_watchers.remove(world);
+		}
+	}
+
+	private void cellChanged(World world, int cellX, int cellY)
+	{
+		ICellObserver[] observers;
+
+		synchronized(m_watchers)
+		{
+			Map<Long, List<ICellObserver>> cells = m_watchers.get(world);
+			List<ICellObserver> watching = cells == null ? null : cells.get(getKey(cellX, cellY));
+
+			if(watching == null)
+				return;
+
+			observers = watching.toArray(new ICellObserver[watching.size()]);
+		}
+
+		for(ICellObserver o : observers)
+			o.cellChanged();
+	}
+
+	/**
+	 * @return The entities in the given cell. The returned array must not be modified.
+	 */
+	public IEntity[] getEntities(World world, int cellX, int cellY)
+	{
+		Cell cell = getCell(world, cellX, cellY);
+
+		return cell == null ? EMPTY : cell.m_entities;
+	}
+
+	/**
+	 * @return The version of the given cell, which changes whenever an entity enters or leaves it.
+	 */
+	public int getVersion(World world, int cellX, int cellY)
+	{
+		Cell cell = getCell(world, cellX, cellY);
+
+		return cell == null ? 0 : cell.m_version;
+	}
+
+	private Cell getCell(World world, int cellX, int cellY)
+	{
+		Map<Long, Cell> cells = m_worlds.get(world);
+
+		return cells == null ? null : cells.get(getKey(cellX, cellY));
+	}
+
+	public interface ICellObserver
+	{
+		void cellChanged();
+	}
+
+	private static final class Cell
+	{
+		private IEntity[] m_entities = EMPTY;
+		private int m_version;
+
+		public Cell(int version)
+		{
+			m_version = version;
+		}
+	}
+
+	private final class Entry implements IEntityWorldObserver
+	{
+		private final IEntity m_entity;
+
+		private World m_world = null;
+		private Cell m_cell = null;
+		private int m_cellX;
+		private int m_cellY;
+
+		public Entry(IEntity entity)
+		{
+			m_entity = entity;
+		}
+
+		public void refresh()
+		{
+			World world = m_entity.getWorld();
+
+			if(world == null)
+			{
+				detach();
+				return;
+			}
+
+			Vector3F location = m_entity.getBody().getLocation();
+			int cellX = toCell(location.x);
+			int cellY = toCell(location.y);
+
+			if(m_cell != null && world == m_world && cellX == m_cellX && cellY == m_cellY)
+				return;
+
+			detach();
+
+			Map<Long, Cell> cells = m_worlds.get(world);
+
+			if(cells == null)
+			{
+				cells = new HashMap<>();
+				m_worlds.put(world, cells);
+			}
+
+			long key = getKey(cellX, cellY);
+			Cell cell = cells.get(key);
+
+			if(cell == null)
+			{
+				cell = new Cell(m_nextVersion++);
+				cells.put(key, cell);
+			}
+
+			IEntity[] entities = new IEntity[cell.m_entities.length + 1];
+			System.arraycopy(cell.m_entities, 0, entities, 0, cell.m_entities.length);
+			entities[cell.m_entities.length] = m_entity;
+
+			cell.m_entities = entities;
+			cell.m_version = m_nextVersion++;
+
+			m_world = world;
+			m_cell = cell;
+			m_cellX = cellX;
+			m_cellY = cellY;
+
+			cellChanged(world, cellX, cellY);
+		}
+
+		public void detach()
+		{
+			if(m_cell == null)
+				return;
+
+			IEntity[] current = m_cell.m_entities;
+
+			for(int i = 0; i < current.length; i++)
+			{
+				if(current[i] != m_entity)
+					continue;
+
+				IEntity[] entities = new IEntity[current.length - 1];
+				System.arraycopy(current, 0, entities, 0, i);
+				System.arraycopy(current, i + 1, entities, i, current.length - i - 1);
+
+				m_cell.m_entities = entities;
+				break;
+			}
+
+			m_cell.m_version = m_nextVersion++;
+
+			if(m_cell.m_entities.length == 0)
+			{
+				Map<Long, Cell> cells = m_worlds.get(m_world);
+				cells.remove(getKey(m_cellX, m_cellY));
+
+				if(cells.isEmpty())
+					m_worlds.remove(m_world);
+			}
+
+			World world = m_world;
+
+			m_cell = null;
+			m_world = null;
+
+			cellChanged(world, m_cellX, m_cellY);
+		}
+
+		@Override
+		public void enterWorld() { }
+
+		@Override
+		public void leaveWorld()
+		{
+			synchronized(EntitySpatialIndex.this)
+			{
+				if(m_entries.get(m_entity) != this)
+					return;
+
+				m_entries.remove(m_entity);
+				detach();
+
+				//The entity is dispatching to its observers, so this entry is only removed from them later.
+				m_detached.add(this);
+			}
+		}
+	}
+}
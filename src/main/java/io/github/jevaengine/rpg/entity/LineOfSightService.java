@@ -0,0 +1,254 @@
+/*
+ * Copyright (C) 2015 Jeremy Wildsmith.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+package io.github.jevaengine.rpg.entity;
+
+import io.github.jevaengine.math.Vector3F;
+import io.github.jevaengine.rpg.entity.Door.IDoorObserver;
+import io.github.jevaengine.rpg.pathfinding.IRoutingGrid;
+import io.github.jevaengine.util.Nullable;
+import io.github.jevaengine.world.World;
+import io.github.jevaengine.world.entity.IEntity;
+
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Resolves line of sight against the static geometry of worlds, described by their routing grids:
+ * cells which cannot be traversed block sight. Rays are cast between cell centres with a DDA grid
+ * walk, and the result for each pair of cells is memoized until the world's geometry changes, so
+ * observers looking across the same cells share the work.
+ *
+ * Queries may be made concurrently (e.g. from vision resolvers updated in parallel), provided
+ * grids are not registered meanwhile. A query made while its grid is invalidated may answer from the
+ * previous geometry, but its answer is not memoized. Cells off the grid are never visible.
+ *
+ * @author Jeremy
+ */
+public final class LineOfSightService
+{
+	private static final int MAX_MEMOIZED = 1 << 16;
+
+	private final Map<World, WorldSight> m_worlds = new IdentityHashMap<>();
+
+	/**
+	 * Registers the geometry of a world. Passing null unregisters the world, after which everything in it is considered visible.
+	 */
+	public synchronized void setGrid(World world, @Nullable IRoutingGrid grid)
+	{
+		if(grid == null)
+			m_worlds.remove(world);
+		else
+			m_worlds.put(world, new WorldSight(grid));
+	}
+
+	@Nullable
+	private synchronized WorldSight getSight(World world)
+	{
+		return m_worlds.get(world);
+	}
+
+	/**
+	 * Discards the memoized results of the given world after its static geometry has changed.
+	 */
+	public void invalidate(World world)
+	{
+		WorldSight sight = getSight(world);
+
+		if(sight != null)
+			sight.invalidate();
+	}
+
+	/**
+	 * Discards the memoized results of the door's world whenever the door opens or closes.
+	 */
+	public void watch(final Door door)
+	{
+		door.getObservers().add(new IDoorObserver() {
+			@Override
+			public void doorStatusChanged()
+			{
+				World world = door.getWorld();
+
+				if(world != null)
+					invalidate(world);
+			}
+		});
+	}
+
+	/**
+	 * @return A version which changes whenever the given world's memoized results are discarded.
+	 */
+	public int getVersion(World world)
+	{
+		WorldSight sight = getSight(world);
+
+		return sight == null ? 0 : sight.m_version;
+	}
+
+	public boolean hasLineOfSight(World world, Vector3F from, Vector3F to)
+	{
+		WorldSight sight = getSight(world);
+
+		return sight == null || sight.hasLineOfSight((int)Math.floor(from.x), (int)Math.floor(from.y), (int)Math.floor(to.x), (int)Math.floor(to.y));
+	}
+
+	/**
+	 * Resolves the line of sight from an observer to a batch of candidates, compacting the visible
+	 * candidates to the front of the array.
+	 *
+	 * @return The number of visible candidates.
+	 */
+	public int filter(World world, Vector3F from, IEntity[] candidates, int count)
+	{
+		WorldSight sight = getSight(world);
+
+		if(sight == null)
+			return count;
+
+		int fromX = (int)Math.floor(from.x);
+		int fromY = (int)Math.floor(from.y);
+		int visible = 0;
+
+		for(int i = 0; i < count; i++)
+		{
+			Vector3F to = candidates[i].getBody().getLocation();
+
+			if(sight.hasLineOfSight(fromX, fromY, (int)Math.floor(to.x), (int)Math.floor(to.y)))
+				candidates[visible++] = candidates[i];
+		}
+
+		for(int i = visible; i < count; i++)
+			candidates[i] = null;
+
+		return visible;
+	}
+
+	private static final class WorldSight
+	{
+		private final IRoutingGrid m_grid;
+		private final ConcurrentHashMap<Long, Boolean> m_memo = new ConcurrentHashMap<>();
+
+		private volatile int m_version = 1;
+
+		public WorldSight(IRoutingGrid grid)
+		{
+			m_grid = grid;
+		}
+
+		public synchronized void invalidate()
+		{
+			m_memo.clear();
+			m_version++;
+		}
+
+		private boolean isOpaque(int x, int y)
+		{
+			return x < 0 || y < 0 || x >= m_grid.getWidth() || y >= m_grid.getHeight() || !m_grid.isTraversable(x, y);
+		}
+
+		private boolean isInBounds(int x, int y)
+		{
+			return x >= 0 && y >= 0 && x < m_grid.getWidth() && y < m_grid.getHeight();
+		}
+
+		public boolean hasLineOfSight(int fromX, int fromY, int toX, int toY)
+		{
+			//Off grid endpoints have no cell index to memoize them under, and are treated as blocked.
+			if(!isInBounds(fromX, fromY) || !isInBounds(toX, toY))
+				return false;
+
+			if(fromX == toX && fromY == toY)
+				return true;
+
+			//Sight is symmetric, so both directions share an entry.
+			int width = m_grid.getWidth();
+			long a = (long)fromY * width + fromX;
+			long b = (long)toY * width + toX;
+			Long key = a < b ? (a << 32) | b : (b << 32) | a;
+
+			Boolean memoized = m_memo.get(key);
+
+			if(memoized != null)
+				return memoized;
+
+			int version = m_version;
+			boolean result = a < b ? cast(fromX, fromY, toX, toY) : cast(toX, toY, fromX, fromY);
+
+			//A ray cast before the grid was invalidated may be stale, so it is only memoized if the grid is unchanged.
+			synchronized(this)
+			{
+				if(version == m_version)
+				{
+					if(m_memo.size() >= MAX_MEMOIZED)
+						m_memo.clear();
+
+					m_memo.put(key, result);
+				}
+			}
+
+			return result;
+		}
+
+		//Walks the cells crossed by the ray between the centres of two cells (Amanatides & Woo).
+		private boolean cast(int fromX, int fromY, int toX, int toY)
+		{
+			int dx = toX - fromX;
+			int dy = toY - fromY;
+			int stepX = Integer.signum(dx);
+			int stepY = Integer.signum(dy);
+
+			float deltaX = dx == 0 ? Float.MAX_VALUE : 1.0F / Math.abs(dx);
+			float deltaY = dy == 0 ? Float.MAX_VALUE : 1.0F / Math.abs(dy);
+			float maxX = deltaX / 2;
+			float maxY = deltaY / 2;
+
+			int x = fromX;
+			int y = fromY;
+
+			while(x != toX || y != toY)
+			{
+				if(maxX < maxY)
+				{
+					maxX += deltaX;
+					x += stepX;
+				} else if(maxY < maxX)
+				{
+					maxY += deltaY;
+					y += stepY;
+				} else
+				{
+					//The ray passes exactly through a corner; it is blocked only if both adjacent cells are.
+					if(isOpaque(x + stepX, y) && isOpaque(x, y + stepY))
+						return false;
+
+					maxX += deltaX;
+					maxY += deltaY;
+					x += stepX;
+					y += stepY;
+				}
+
+				if((x != toX || y != toY) && isOpaque(x, y))
+					return false;
+			}
+
+			return true;
+		}
+	}
+}
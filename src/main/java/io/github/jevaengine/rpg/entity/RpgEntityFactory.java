@@ -26,6 +26,7 @@ import io.github.jevaengine.config.IConfigurationFactory.ConfigurationConstructi
 import io.github.jevaengine.rpg.entity.character.IRpgCharacter;
 import io.github.jevaengine.rpg.entity.character.IRpgCharacterFactory;
 import io.github.jevaengine.rpg.entity.character.IRpgCharacterFactory.CharacterCreationException;
+import io.github.jevaengine.rpg.pathfinding.RouteService;
 import io.github.jevaengine.script.IScriptBuilder;
 import io.github.jevaengine.script.IScriptBuilderFactory;
 import io.github.jevaengine.script.IScriptBuilderFactory.ScriptBuilderConstructionException;
@@ -60,10 +61,23 @@ public final class RpgEntityFactory implements IEntityFactory
 	private final IAnimationSceneModelFactory m_animationSceneModelFactory;
 	private final ISceneModelFactory m_modelFactory;
 	
+	@Nullable
+	private final RouteService m_routeService;
+	
 	@Inject
 	public RpgEntityFactory(IScriptBuilderFactory scriptBuilderFactory, IAudioClipFactory audioClipFactory, IConfigurationFactory configurationFactory,
 			IRpgCharacterFactory characterFactory, IParticleEmitterFactory particleEmitterFactory, IAnimationSceneModelFactory animationSceneModelFactory,
 							ISceneModelFactory modelFactory)
+	{
+		this(scriptBuilderFactory, audioClipFactory, configurationFactory, characterFactory, particleEmitterFactory, animationSceneModelFactory, modelFactory, null);
+	}
+	
+	/**
+	 * @param routeService Route service whose cached routes are invalidated when doors created by this factory open or close.
+	 */
+	public RpgEntityFactory(IScriptBuilderFactory scriptBuilderFactory, IAudioClipFactory audioClipFactory, IConfigurationFactory configurationFactory,
+			IRpgCharacterFactory characterFactory, IParticleEmitterFactory particleEmitterFactory, IAnimationSceneModelFactory animationSceneModelFactory,
+							ISceneModelFactory modelFactory, @Nullable RouteService routeService)
 	{
 		m_scriptBuilderFactory = scriptBuilderFactory;
 		m_audioClipFactory = audioClipFactory;
@@ -72,6 +86,7 @@ public final class RpgEntityFactory implements IEntityFactory
 		m_particleEmitterFactory = particleEmitterFactory;
 		m_animationSceneModelFactory = animationSceneModelFactory;
 		m_modelFactory = modelFactory;
+		m_routeService = routeService;
 	}
 	
 	@Override
@@ -230,7 +245,12 @@ public final class RpgEntityFactory implements IEntityFactory
 				
 					DoorDeclaration decl = auxConfig.getValue(DoorDeclaration.class);
 					IAnimationSceneModel model = entityFactory.m_animationSceneModelFactory.create(context.resolve(new URI(decl.model)));
-					return new Door(model, instanceName, decl.isOpen, decl.isLocked);
+					Door door = new Door(model, instanceName, decl.isOpen, decl.isLocked);
+					
+					if(entityFactory.m_routeService != null)
+						entityFactory.m_routeService.watch(door);
+					
+					return door;
 				} catch (SceneModelConstructionException | ValueSerializationException | URISyntaxException e)
 				{
 					throw new EntityConstructionException(e);
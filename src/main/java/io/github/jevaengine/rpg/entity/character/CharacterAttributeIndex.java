@@ -0,0 +1,336 @@
+/*
+ * Copyright (C) 2015 Jeremy Wildsmith.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+package io.github.jevaengine.rpg.entity.character;
+
+import io.github.jevaengine.rpg.IImmutableAttributeSet.IAttributeChangeObserver;
+import io.github.jevaengine.rpg.IImmutableAttributeSet.IAttributeIdentifier;
+import io.github.jevaengine.rpg.IImmutableAttributeSet.IImmutableAttribute;
+import io.github.jevaengine.util.Nullable;
+import io.github.jevaengine.world.World;
+import io.github.jevaengine.world.entity.IEntity.IEntityWorldObserver;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.TreeSet;
+
+/**
+ * Keeps a set of characters ordered by the value of an attribute, or by the ratio of two
+ * attributes (e.g. health over maximum health). The index is maintained from attribute change
+ * notifications, and answers range and top-K queries in O(log n + k) rather than scanning
+ * every character.
+ *
+ * An index belongs to a single world; only characters in that world may be added, and they are
+ * dropped from the index when they leave it. The index is synchronized, as attribute changes are
+ * observed on whichever thread writes them.
+ *
+ * @author Jeremy
+ */
+public final class CharacterAttributeIndex
+{
+	private static final Comparator<Entry> ORDER = new Comparator<Entry>() {
+		@Override
+		public int compare(Entry a, Entry b)
+		{
+			int result = Float.compare(a.m_value, b.m_value);
+			return result != 0 ? result : Long.compare(a.m_sequence, b.m_sequence);
+		}
+	};
+
+	private final World m_world;
+	private final IAttributeIdentifier m_attribute;
+
+	@Nullable
+	private final IAttributeIdentifier m_denominator;
+
+	private final TreeSet<Entry> m_entries = new TreeSet<>(ORDER);
+	private final Map<IRpgCharacter, Entry> m_characters = new HashMap<>();
+
+	//Entries of characters that left their world, still registered with the characters' observers.
+	private final List<Entry> m_detached = new ArrayList<>();
+
+	private long m_nextSequence = 0;
+
+	public CharacterAttributeIndex(World world, IAttributeIdentifier attribute)
+	{
+		this(world, attribute, null);
+	}
+
+	/**
+	 * Constructs an index ordered by the ratio of attribute to denominator. Characters whose
+	 * denominator is zero are indexed with a ratio of zero.
+	 */
+	public CharacterAttributeIndex(World world, IAttributeIdentifier attribute, @Nullable IAttributeIdentifier denominator)
+	{
+		m_world = world;
+		m_attribute = attribute;
+		m_denominator = denominator;
+	}
+
+	public World getWorld()
+	{
+		return m_world;
+	}
+
+	private void removeDetached()
+	{
+		for(Entry e : m_detached)
+			e.m_character.getObservers().remove(e);
+
+		m_detached.clear();
+	}
+
+	public synchronized void add(IRpgCharacter character)
+	{
+		if(character.getWorld() != m_world)
+			throw new IllegalArgumentException("Character is not in the world of this index.");
+
+		removeDetached();
+
+		if(m_characters.containsKey(character))
+			return;
+
+		Entry entry = new Entry(character);
+		m_characters.put(character, entry);
+		m_entries.add(entry);
+	}
+
+	public synchronized void remove(IRpgCharacter character)
+	{
+		removeDetached();
+
+		Entry entry = m_characters.remove(character);
+
+		if(entry == null)
+			return;
+
+		m_entries.remove(entry);
+		entry.dispose();
+	}
+
+	public synchronized void clear()
+	{
+		removeDetached();
+
+		for(Entry e : m_characters.values())
+			e.dispose();
+
+		m_characters.clear();
+		m_entries.clear();
+	}
+
+	public synchronized boolean contains(IRpgCharacter character)
+	{
+		return m_characters.containsKey(character);
+	}
+
+	public synchronized int size()
+	{
+		return m_characters.size();
+	}
+
+	public synchronized float getValue(IRpgCharacter character)
+	{
+		Entry entry = m_characters.get(character);
+
+		return entry == null ? 0 : entry.m_value;
+	}
+
+	/**
+	 * @return Characters whose indexed value lies within [min, max], in ascending order of value.
+	 */
+	public synchronized List<IRpgCharacter> range(float min, float max)
+	{
+		List<IRpgCharacter> characters = new ArrayList<>();
+
+		if(min > max)
+			return characters;
+
+		NavigableSet<Entry> range = m_entries.subSet(new Entry(min, Long.MIN_VALUE), true, new Entry(max, Long.MAX_VALUE), true);
+
+		for(Entry e : range)
+			characters.add(e.m_character);
+
+		return characters;
+	}
+
+	/**
+	 * @return Characters whose indexed value is strictly less than the given value, in ascending order of value.
+	 */
+	public synchronized List<IRpgCharacter> below(float value)
+	{
+		List<IRpgCharacter> characters = new ArrayList<>();
+
+		for(Entry e : m_entries.headSet(new Entry(value, Long.MIN_VALUE), false))
+			characters.add(e.m_character);
+
+		return characters;
+	}
+
+	/**
+	 * @return Up to count characters with the highest indexed values, in descending order of value.
+	 */
+	public synchronized List<IRpgCharacter> top(int count)
+	{
+		return first(m_entries.descendingIterator(), count);
+	}
+
+	/**
+	 * @return Up to count characters with the lowest indexed values, in ascending order of value.
+	 */
+	public synchronized List<IRpgCharacter> bottom(int count)
+	{
+		return first(m_entries.iterator(), count);
+	}
+
+	@Nullable
+	public synchronized IRpgCharacter highest()
+	{
+		return m_entries.isEmpty() ? null : m_entries.last().m_character;
+	}
+
+	@Nullable
+	public synchronized IRpgCharacter lowest()
+	{
+		return m_entries.isEmpty() ? null : m_entries.first().m_character;
+	}
+
+	private static List<IRpgCharacter> first(Iterator<Entry> entries, int count)
+	{
+		List<IRpgCharacter> characters = new ArrayList<>(Math.max(0, Math.min(count, 16)));
+
+		while(characters.size() < count && entries.hasNext())
+			characters.add(entries.next().m_character);
+
+		return characters;
+	}
+
+	private final class Entry implements IAttributeChangeObserver, IEntityWorldObserver
+	{
+		private final IRpgCharacter m_character;
+		private final long m_sequence;
+
+		private final IImmutableAttribute m_numeratorAttribute;
+
+		@Nullable
+		private final IImmutableAttribute m_denominatorAttribute;
+
+		private float m_value;
+
+		//Constructs a search key for range queries.
+		public Entry(float value, long sequence)
+		{
+			m_character = null;
+			m_numeratorAttribute = null;
+			m_denominatorAttribute = null;
+			m_value = value;
+			m_sequence = sequence;
+		}
+
+		public Entry(IRpgCharacter character)
+		{
+			m_character = character;
+			m_sequence = m_nextSequence++;
+
+			m_numeratorAttribute = character.getAttributes().view(m_attribute);
+			m_numeratorAttribute.getObservers().add(this);
+
+			if(m_denominator != null)
+			{
+				m_denominatorAttribute = character.getAttributes().view(m_denominator);
+				m_denominatorAttribute.getObservers().add(this);
+			} else
+				m_denominatorAttribute = null;
+
+			character.getObservers().add(this);
+
+			m_value = calculateValue();
+		}
+
+		private float calculateValue()
+		{
+			float value = m_numeratorAttribute.get();
+
+			if(m_denominatorAttribute == null)
+				return value;
+
+			float denominator = m_denominatorAttribute.get();
+
+			return denominator == 0 ? 0 : value / denominator;
+		}
+
+		private void detachAttributes()
+		{
+			m_numeratorAttribute.getObservers().remove(this);
+
+			if(m_denominatorAttribute != null)
+				m_denominatorAttribute.getObservers().remove(this);
+		}
+
+		public void dispose()
+		{
+			detachAttributes();
+			m_character.getObservers().remove(this);
+		}
+
+		@Override
+		public void changed(float delta)
+		{
+			synchronized(CharacterAttributeIndex.this)
+			{
+				//The entry may have been removed while this notification was dispatched.
+				if(m_characters.get(m_character) != this)
+					return;
+
+				float value = calculateValue();
+
+				if(Float.compare(value, m_value) == 0)
+					return;
+
+				m_entries.remove(this);
+				m_value = value;
+				m_entries.add(this);
+			}
+		}
+
+		@Override
+		public void leaveWorld()
+		{
+			synchronized(CharacterAttributeIndex.this)
+			{
+				if(m_characters.get(m_character) != this)
+					return;
+
+				m_characters.remove(m_character);
+				m_entries.remove(this);
+				detachAttributes();
+
+				//The character is dispatching to its observers, so this entry is only removed from them later.
+				m_detached.add(this);
+			}
+		}
+
+		@Override
+		public void enterWorld() { }
+	}
+}
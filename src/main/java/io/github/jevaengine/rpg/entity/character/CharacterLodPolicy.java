@@ -0,0 +1,231 @@
+/*
+ * Copyright (C) 2015 Jeremy Wildsmith.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+package io.github.jevaengine.rpg.entity.character;
+
+import io.github.jevaengine.math.Vector3F;
+import io.github.jevaengine.world.entity.IEntity;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * Simulation level-of-detail for characters, based on their distance from the nearest focus
+ * entity (e.g. the players) in the same world. Characters are placed in distance bands; the
+ * nearest band is updated every frame, while characters in further bands are updated at a
+ * reduced frequency with the accumulated delta. Characters in or beyond the model cut-off band do
+ * not update their scene model.
+ *
+ * Without any focus entities, or bands, every character is simulated at full fidelity.
+ *
+ * @author Jeremy
+ */
+public final class CharacterLodPolicy
+{
+	private final float[] m_bandDistancesSquared;
+	private final int[] m_updateIntervals;
+	private final int m_modelCutoffBand;
+
+	private final AtomicIntegerArray m_population;
+	private final AtomicInteger m_nextPhase = new AtomicInteger();
+
+	private volatile IEntity[] m_foci = new IEntity[0];
+
+	/**
+	 * @param bandDistances The outer distance of each band, in ascending order. Characters beyond the last
+	 *                      distance are placed in an additional, final band.
+	 * @param updateIntervals The update interval, in milliseconds, of each band including the final band.
+	 * @param modelCutoffBand The nearest band whose characters do not update their scene model.
+	 */
+	public CharacterLodPolicy(float[] bandDistances, int[] updateIntervals, int modelCutoffBand)
+	{
+		if(updateIntervals.length != bandDistances.length + 1)
+			throw new IllegalArgumentException("An update interval must be specified for each band, including the final band.");
+
+		m_bandDistancesSquared = new float[bandDistances.length];
+
+		for(int i = 0; i < bandDistances.length; i++)
+			m_bandDistancesSquared[i] = bandDistances[i] * bandDistances[i];
+
+		m_updateIntervals = Arrays.copyOf(updateIntervals, updateIntervals.length);
+		m_modelCutoffBand = modelCutoffBand;
+		m_population = new AtomicIntegerArray(updateIntervals.length);
+	}
+
+	public CharacterLodPolicy()
+	{
+		this(new float[0], new int[] {0}, 1);
+	}
+
+	public int getBandCount()
+	{
+		return m_updateIntervals.length;
+	}
+
+	/**
+	 * @return The number of characters currently simulated in the given band.
+	 */
+	public int getPopulation(int band)
+	{
+		return m_population.get(band);
+	}
+
+	public synchronized void addFocus(IEntity focus)
+	{
+		List<IEntity> foci = new ArrayList<>(Arrays.asList(m_foci));
+
+		if(!foci.contains(focus))
+		{
+			foci.add(focus);
+			m_foci = foci.toArray(new IEntity[foci.size()]);
+		}
+	}
+
+	public synchronized void removeFocus(IEntity focus)
+	{
+		List<IEntity> foci = new ArrayList<>(Arrays.asList(m_foci));
+
+		if(foci.remove(focus))
+			m_foci = foci.toArray(new IEntity[foci.size()]);
+	}
+
+	private int getBand(IEntity subject)
+	{
+		IEntity[] foci = m_foci;
+
+		if(foci.length == 0 || m_bandDistancesSquared.length == 0 || subject.getWorld() == null)
+			return 0;
+
+		Vector3F location = subject.getBody().getLocation();
+		float nearest = Float.MAX_VALUE;
+
+		for(IEntity focus : foci)
+		{
+			if(focus.getWorld() != subject.getWorld())
+				continue;
+
+			Vector3F focusLocation = focus.getBody().getLocation();
+			float dx = focusLocation.x - location.x;
+			float dy = focusLocation.y - location.y;
+
+			nearest = Math.min(nearest, dx * dx + dy * dy);
+		}
+
+		int band = 0;
+
+		while(band < m_bandDistancesSquared.length && nearest > m_bandDistancesSquared[band])
+			band++;
+
+		return band;
+	}
+
+	LodState createState()
+	{
+		return new LodState();
+	}
+
+	/**
+	 * Per-character level-of-detail state.
+	 */
+	final class LodState
+	{
+		private final int m_phase = m_nextPhase.getAndAdd(7919) & Integer.MAX_VALUE;
+
+		private int m_band = -1;
+		private int m_remaining = 0;
+		private int m_elapsed = 0;
+
+		/**
+		 * Accumulates delta and determines whether the character is due to be updated.
+		 */
+		public boolean advance(IEntity subject, int delta)
+		{
+			//Characters outside of a world are not counted in any band, and are simulated at full fidelity.
+			if(subject.getWorld() == null)
+			{
+				leaveBand();
+				m_elapsed += delta;
+				
+				return true;
+			}
+			
+			int band = getBand(subject);
+
+			if(band != m_band)
+			{
+				if(m_band >= 0)
+					m_population.decrementAndGet(m_band);
+
+				m_population.incrementAndGet(band);
+
+				//Stagger the updates of characters entering a band so they do not all fall on the same frame.
+				int interval = m_updateIntervals[band];
+				m_remaining = interval == 0 ? 0 : m_phase % interval;
+				m_band = band;
+			}
+
+			m_elapsed += delta;
+			m_remaining -= delta;
+
+			if(m_remaining > 0)
+				return false;
+
+			m_remaining = Math.max(0, m_remaining + m_updateIntervals[m_band]);
+
+			return true;
+		}
+
+		/**
+		 * @return The delta accumulated since the character was last updated. Resets the accumulated delta.
+		 */
+		public int consumeElapsed()
+		{
+			int elapsed = m_elapsed;
+			m_elapsed = 0;
+
+			return elapsed;
+		}
+
+		/**
+		 * @return The band the character was last placed in, zero being nearest to a focus.
+		 */
+		public int getBand()
+		{
+			return Math.max(0, m_band);
+		}
+
+		public boolean isModelUpdated()
+		{
+			return m_band < m_modelCutoffBand;
+		}
+
+		/**
+		 * Removes the character from its band's population, until it is next advanced.
+		 */
+		public void leaveBand()
+		{
+			if(m_band >= 0)
+				m_population.decrementAndGet(m_band);
+
+			m_band = -1;
+		}
+	}
+}
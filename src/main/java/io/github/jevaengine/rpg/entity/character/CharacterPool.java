@@ -0,0 +1,130 @@
+/*
+ * Copyright (C) 2015 Jeremy Wildsmith.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+package io.github.jevaengine.rpg.entity.character;
+
+import io.github.jevaengine.config.IImmutableVariable;
+import io.github.jevaengine.config.NullVariable;
+
+import java.net.URI;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Spawns characters from a template cache, retaining disposed characters and handing them out
+ * again in place of constructing new ones, which skips the construction of their resolvers, scene
+ * model and script. A pooled character is reset when disposed to the attributes and newly created
+ * starting items of its template, and given its new instance name when it is handed out again.
+ * See {@link DefaultRpgCharacter} for the state which a reset does not cover.
+ *
+ * Only characters created from a configuration without an auxiliary configuration are pooled,
+ * since characters of the same configuration must otherwise be indistinguishable.
+ *
+ * The pool is not thread-safe, and should be used by the thread which spawns and disposes characters.
+ *
+ * @author Jeremy
+ */
+public final class CharacterPool implements IRpgCharacterFactory
+{
+	private final CharacterTemplateCache m_templates;
+	private final int m_capacity;
+	
+	private final Map<URI, Deque<DefaultRpgCharacter>> m_pooled = new HashMap<>();
+	
+	/**
+	 * @param capacity The maximum number of disposed characters retained per configuration.
+	 */
+	public CharacterPool(CharacterTemplateCache templates, int capacity)
+	{
+		m_templates = templates;
+		m_capacity = capacity;
+	}
+	
+	@Override
+	public IRpgCharacter create(String instanceName, URI config, IImmutableVariable auxConfig) throws CharacterCreationException
+	{
+		if(!(auxConfig instanceof NullVariable))
+			return m_templates.create(instanceName, config, auxConfig);
+		
+		Deque<DefaultRpgCharacter> pooled = m_pooled.get(config);
+		
+		if(pooled != null && !pooled.isEmpty())
+		{
+			DefaultRpgCharacter character = pooled.pop();
+			character.acquire(instanceName);
+			
+			return character;
+		}
+		
+		CharacterTemplate template = m_templates.getTemplate(config);
+		DefaultRpgCharacter character = template.spawn(instanceName);
+		character.setPool(this, config, template);
+		
+		return character;
+	}
+
+	@Override
+	public IRpgCharacter create(String instanceName, IImmutableVariable config) throws CharacterCreationException
+	{
+		return m_templates.create(instanceName, config);
+	}
+	
+	public int getPooledCount(URI config)
+	{
+		Deque<DefaultRpgCharacter> pooled = m_pooled.get(config);
+		
+		return pooled == null ? 0 : pooled.size();
+	}
+	
+	boolean canRelease(URI config)
+	{
+		return getPooledCount(config) < m_capacity;
+	}
+	
+	void release(DefaultRpgCharacter character, URI config)
+	{
+		Deque<DefaultRpgCharacter> pooled = m_pooled.get(config);
+		
+		if(pooled == null)
+		{
+			pooled = new ArrayDeque<>();
+			m_pooled.put(config, pooled);
+		}
+		
+		pooled.push(character);
+	}
+	
+	/**
+	 * Disposes every character retained by this pool.
+	 */
+	public void clear()
+	{
+		for(Deque<DefaultRpgCharacter> pooled : m_pooled.values())
+		{
+			for(DefaultRpgCharacter character : pooled)
+			{
+				character.setPool(null, null, null);
+				character.dispose();
+			}
+		}
+		
+		m_pooled.clear();
+	}
+}
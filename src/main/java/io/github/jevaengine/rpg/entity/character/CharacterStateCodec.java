@@ -0,0 +1,437 @@
+/*
+ * Copyright (C) 2015 Jeremy Wildsmith.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+package io.github.jevaengine.rpg.entity.character;
+
+import io.github.jevaengine.rpg.AttributeRegistry;
+import io.github.jevaengine.rpg.AttributeSet;
+import io.github.jevaengine.rpg.IImmutableAttributeSet;
+import io.github.jevaengine.rpg.IImmutableAttributeSet.IAttributeVisitor;
+import io.github.jevaengine.rpg.entity.character.ILoadout.ILoadoutSlot;
+import io.github.jevaengine.rpg.item.DefaultItemSlot;
+import io.github.jevaengine.rpg.item.IItem;
+import io.github.jevaengine.rpg.item.IItem.IWieldTarget;
+import io.github.jevaengine.util.Nullable;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A compact binary encoding of attribute sets, inventories and loadouts, written directly to and
+ * read directly from a {@link ByteBuffer}.
+ *
+ * Integers are written as variable length integers. Attribute and wield target names are interned
+ * per stream: a name is written in full the first time it occurs and referred to by a small index
+ * afterwards, so an {@link Encoder} and its matching {@link Decoder} must process the same sequence
+ * of values. Attribute values are encoded exactly unless the encoder is constructed with a
+ * quantization step, in which case each value is rounded to the nearest multiple of that step.
+ *
+ * Items are written as ids resolved through an {@link IItemTable}.
+ *
+ * @author Jeremy
+ */
+public final class CharacterStateCodec
+{
+	private static final int MODE_EXACT = 0;
+	private static final int MODE_QUANTIZED = 1;
+
+	private static final int NO_ITEM = 0;
+
+	private CharacterStateCodec() { }
+
+	private static long zigZag(long value)
+	{
+		return (value << 1) ^ (value >> 63);
+	}
+
+	private static long unZigZag(long value)
+	{
+		return (value >>> 1) ^ -(value & 1);
+	}
+
+	public static final class Encoder
+	{
+		private final ByteBuffer m_buffer;
+		private final IItemTable m_items;
+		private final float m_quantum;
+
+		private final Map<String, Integer> m_attributeNames = new HashMap<>();
+		private final Map<String, Integer> m_wieldTargetNames = new HashMap<>();
+
+		private final ValueVisitor m_valueVisitor = new ValueVisitor();
+		private final CountVisitor m_countVisitor = new CountVisitor();
+
+		/**
+		 * @param quantum The quantization step applied to attribute values, or zero to encode values exactly.
+		 */
+		public Encoder(ByteBuffer buffer, IItemTable items, float quantum)
+		{
+			m_buffer = buffer;
+			m_items = items;
+			m_quantum = quantum;
+		}
+
+		public Encoder(ByteBuffer buffer, IItemTable items)
+		{
+			this(buffer, items, 0);
+		}
+
+		private void writeVarLong(long value)
+		{
+			while((value & ~0x7FL) != 0)
+			{
+				m_buffer.put((byte)((value & 0x7F) | 0x80));
+				value >>>= 7;
+			}
+
+			m_buffer.put((byte)value);
+		}
+
+		private void writeName(Map<String, Integer> dictionary, String name)
+		{
+			Integer index = dictionary.get(name);
+
+			if(index != null)
+			{
+				writeVarLong((long)index << 1);
+				return;
+			}
+
+			index = dictionary.size();
+			dictionary.put(name, index);
+
+			byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+
+			writeVarLong(((long)index << 1) | 1);
+			writeVarLong(bytes.length);
+			m_buffer.put(bytes);
+		}
+
+		private void writeValue(float value)
+		{
+			if(m_quantum != 0)
+			{
+				writeVarLong(zigZag(Math.round((double)value / m_quantum)));
+				return;
+			}
+
+			int whole = (int)value;
+
+			//Whole numbers are common and small, so they are written as a (tagged) varint.
+			if(whole == value && Float.floatToRawIntBits(value) != Float.floatToRawIntBits(-0.0F))
+				writeVarLong(zigZag(whole) << 1);
+			else
+			{
+				writeVarLong(1);
+				m_buffer.putInt(Float.floatToRawIntBits(value));
+			}
+		}
+
+		private void writeItem(@Nullable IItem item)
+		{
+			writeVarLong(item == null ? NO_ITEM : m_items.getId(item) + 1L);
+		}
+
+		public void writeAttributes(IImmutableAttributeSet attributes)
+		{
+			m_countVisitor.m_count = 0;
+			attributes.forEach(m_countVisitor);
+
+			writeVarLong(m_countVisitor.m_count);
+
+			if(m_quantum == 0)
+				m_buffer.put((byte)MODE_EXACT);
+			else
+			{
+				m_buffer.put((byte)MODE_QUANTIZED);
+				m_buffer.putFloat(m_quantum);
+			}
+
+			attributes.forEach(m_valueVisitor);
+		}
+
+		public void writeInventory(DefaultInventory inventory)
+		{
+			DefaultItemSlot[] slots = inventory.getSlots();
+
+			writeVarLong(slots.length);
+
+			for(DefaultItemSlot s : slots)
+				writeItem(s.isEmpty() ? null : s.getItem());
+		}
+
+		public void writeLoadout(ILoadout loadout)
+		{
+			ILoadoutSlot[] slots = loadout.getSlots();
+
+			writeVarLong(slots.length);
+
+			for(ILoadoutSlot s : slots)
+			{
+				writeName(m_wieldTargetNames, s.getWieldTarget().getName());
+				writeItem(s.isEmpty() ? null : s.getItem());
+			}
+		}
+
+		private final class CountVisitor implements IAttributeVisitor
+		{
+			private int m_count;
+
+			@Override
+			public void visit(int id, float value)
+			{
+				m_count++;
+			}
+		}
+
+		private final class ValueVisitor implements IAttributeVisitor
+		{
+			@Override
+			public void visit(int id, float value)
+			{
+				writeName(m_attributeNames, AttributeRegistry.getIdentifier(id).getName());
+				writeValue(value);
+			}
+		}
+	}
+
+	public static final class Decoder
+	{
+		private final ByteBuffer m_buffer;
+		private final IItemTable m_items;
+
+		private final List<String> m_attributeNames = new ArrayList<>();
+		private final List<String> m_wieldTargetNames = new ArrayList<>();
+
+		public Decoder(ByteBuffer buffer, IItemTable items)
+		{
+			m_buffer = buffer;
+			m_items = items;
+		}
+
+		private long readVarLong() throws StateDecodeException
+		{
+			long value = 0;
+
+			for(int shift = 0; shift < Long.SIZE; shift += 7)
+			{
+				byte b = m_buffer.get();
+				value |= (long)(b & 0x7F) << shift;
+
+				if((b & 0x80) == 0)
+					return value;
+			}
+
+			throw new StateDecodeException("Malformed variable length integer.");
+		}
+
+		private int readCount() throws StateDecodeException
+		{
+			long count = readVarLong();
+
+			if(count < 0 || count > m_buffer.remaining())
+				throw new StateDecodeException("Invalid element count " + count + ".");
+
+			return (int)count;
+		}
+
+		private String readName(List<String> dictionary) throws StateDecodeException
+		{
+			long tag = readVarLong();
+			long index = tag >>> 1;
+
+			if((tag & 1) == 0)
+			{
+				if(index >= dictionary.size())
+					throw new StateDecodeException("Reference to undefined name " + index + ".");
+
+				return dictionary.get((int)index);
+			}
+
+			if(index != dictionary.size())
+				throw new StateDecodeException("Names must be defined in order.");
+
+			byte[] bytes = new byte[readCount()];
+			m_buffer.get(bytes);
+
+			String name = new String(bytes, StandardCharsets.UTF_8);
+			dictionary.add(name);
+
+			return name;
+		}
+
+		private float readValue(int mode, float quantum) throws StateDecodeException
+		{
+			long value = readVarLong();
+
+			if(mode == MODE_QUANTIZED)
+				return (float)(unZigZag(value) * (double)quantum);
+
+			if((value & 1) == 0)
+				return unZigZag(value >>> 1);
+
+			return Float.intBitsToFloat(m_buffer.getInt());
+		}
+
+		@Nullable
+		private IItem readItem() throws StateDecodeException
+		{
+			long id = readVarLong();
+
+			if(id == NO_ITEM)
+				return null;
+
+			IItem item = m_items.getItem((int)(id - 1));
+
+			if(item == null)
+				throw new StateDecodeException("Unknown item id " + (id - 1) + ".");
+
+			return item;
+		}
+
+		/**
+		 * Reads an attribute set into the given target. Attributes not present in the stream are left untouched.
+		 */
+		public void readAttributes(AttributeSet target) throws StateDecodeException
+		{
+			target.beginBatch();
+
+			try
+			{
+				int count = readCount();
+				int mode = m_buffer.get();
+				float quantum = 0;
+
+				if(mode == MODE_QUANTIZED)
+					quantum = m_buffer.getFloat();
+				else if(mode != MODE_EXACT)
+					throw new StateDecodeException("Unknown attribute encoding " + mode + ".");
+
+				for(int i = 0; i < count; i++)
+				{
+					int id = AttributeRegistry.getId(readName(m_attributeNames));
+					target.get(id).set(readValue(mode, quantum));
+				}
+			} catch(BufferUnderflowException e)
+			{
+				throw new StateDecodeException("Unexpected end of stream.", e);
+			} finally
+			{
+				target.commit();
+			}
+		}
+
+		public AttributeSet readAttributes() throws StateDecodeException
+		{
+			AttributeSet attributes = new AttributeSet();
+			readAttributes(attributes);
+
+			return attributes;
+		}
+
+		public void readInventory(DefaultInventory target) throws StateDecodeException
+		{
+			try
+			{
+				DefaultItemSlot[] slots = target.getSlots();
+				int count = readCount();
+
+				if(count != slots.length)
+					throw new StateDecodeException("Inventory has " + slots.length + " slots but " + count + " were encoded.");
+
+				for(DefaultItemSlot s : slots)
+				{
+					IItem item = readItem();
+
+					if(item == null)
+						s.clear();
+					else
+						s.setItem(item);
+				}
+			} catch(BufferUnderflowException e)
+			{
+				throw new StateDecodeException("Unexpected end of stream.", e);
+			}
+		}
+
+		public void readLoadout(ILoadout target) throws StateDecodeException
+		{
+			try
+			{
+				Map<String, IWieldTarget> wieldTargets = new HashMap<>();
+
+				for(IWieldTarget t : target.getWieldTargets())
+					wieldTargets.put(t.getName(), t);
+
+				int count = readCount();
+
+				for(int i = 0; i < count; i++)
+				{
+					String name = readName(m_wieldTargetNames);
+					IItem item = readItem();
+
+					IWieldTarget wieldTarget = wieldTargets.get(name);
+
+					if(wieldTarget == null)
+						throw new StateDecodeException("Loadout does not have wield target " + name + ".");
+
+					ILoadoutSlot slot = target.getSlot(wieldTarget);
+
+					if(item == null)
+						slot.clear();
+					else if(slot.isEmpty() || slot.getItem() != item)
+						slot.setItem(item);
+				}
+			} catch(BufferUnderflowException e)
+			{
+				throw new StateDecodeException("Unexpected end of stream.", e);
+			}
+		}
+	}
+
+	/**
+	 * Maps items to stable, non-negative integer ids, such as their index in a game's item catalogue.
+	 */
+	public interface IItemTable
+	{
+		int getId(IItem item);
+
+		@Nullable
+		IItem getItem(int id);
+	}
+
+	public static final class StateDecodeException extends Exception
+	{
+		private static final long serialVersionUID = 1L;
+
+		public StateDecodeException(String reason)
+		{
+			super(reason);
+		}
+
+		public StateDecodeException(String reason, Exception cause)
+		{
+			super(reason, cause);
+		}
+	}
+}
@@ -0,0 +1,157 @@
+/*
+ * Copyright (C) 2015 Jeremy Wildsmith.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+package io.github.jevaengine.rpg.entity.character;
+
+import io.github.jevaengine.rpg.AttributeSet;
+import io.github.jevaengine.rpg.AttributeSnapshot;
+import io.github.jevaengine.rpg.IImmutableAttributeSet;
+import io.github.jevaengine.rpg.dialogue.IDialogueRouteFactory;
+import io.github.jevaengine.rpg.entity.character.IRpgCharacterFactory.CharacterCreationException;
+import io.github.jevaengine.rpg.item.IItem.IWieldTarget;
+import io.github.jevaengine.rpg.item.IItemFactory;
+import io.github.jevaengine.rpg.item.IItemFactory.ItemContructionException;
+import io.github.jevaengine.rpg.item.IItemStore;
+import io.github.jevaengine.rpg.pathfinding.RouteService;
+import io.github.jevaengine.script.IScriptBuilder;
+import io.github.jevaengine.world.physics.PhysicsBodyDescription;
+import io.github.jevaengine.world.scene.model.IActionSceneModel;
+
+import java.net.URI;
+import java.util.Arrays;
+
+/**
+ * The parsed, immutable archetype of a character: its attributes, resolver factories, loadout
+ * wield targets, starting items, script and a prototype scene model. Spawning a character from a
+ * template copies only per-instance state; the attributes are copied on write, the prototype model
+ * is cloned and the starting items are created through the item factory.
+ *
+ * A template may be shared by any number of characters and spawned from any thread, provided its
+ * factories may be. The prototype model must clone to an action scene model.
+ *
+ * @author Jeremy
+ */
+public final class CharacterTemplate
+{
+	private final IScriptBuilder m_scriptBuilder;
+	private final IDialogueRouteFactory m_dialogueRouteFactory;
+	
+	private final AttributeSnapshot m_attributes;
+	
+	private final IStatusResolverFactory m_statusResolver;
+	private final IDialogueResolverFactory m_dialogueResolver;
+	private final IMovementResolverFactory m_movementResolver;
+	private final IVisionResolverFactory m_visionResolver;
+	private final IAllegianceResolverFactory m_allegianceResolver;
+	
+	private final IWieldTarget[] m_wieldTargets;
+	private final int m_inventorySize;
+	
+	private final IItemFactory m_itemFactory;
+	private final URI[] m_loadoutItems;
+	private final URI[] m_inventoryItems;
+	
+	private final IActionSceneModel m_model;
+	private final PhysicsBodyDescription m_physicsBodyDescription;
+	
+	private final CharacterLodPolicy m_lodPolicy;
+	private final RouteService m_routeService;
+	
+	public CharacterTemplate(IScriptBuilder scriptBuilder,
+						IDialogueRouteFactory dialogueRouteFactory,
+						IImmutableAttributeSet attributes,
+						IStatusResolverFactory statusResolver,
+						IDialogueResolverFactory dialogueResolver,
+						IMovementResolverFactory movementResolver,
+						IVisionResolverFactory visionResolver,
+						IAllegianceResolverFactory allegianceResolver,
+						IWieldTarget[] wieldTargets,
+						int inventorySize,
+						IItemFactory itemFactory,
+						URI[] loadoutItems,
+						URI[] inventoryItems,
+						IActionSceneModel model,
+						PhysicsBodyDescription physicsBodyDescription,
+						CharacterLodPolicy lodPolicy,
+						RouteService routeService)
+	{
+		if(!(model.clone() instanceof IActionSceneModel))
+			throw new IllegalArgumentException("Prototype model does not clone to an action scene model.");
+		
+		m_scriptBuilder = scriptBuilder;
+		m_dialogueRouteFactory = dialogueRouteFactory;
+		m_attributes = new AttributeSet(attributes).snapshot();
+		m_statusResolver = statusResolver;
+		m_dialogueResolver = dialogueResolver;
+		m_movementResolver = movementResolver;
+		m_visionResolver = visionResolver;
+		m_allegianceResolver = allegianceResolver;
+		m_wieldTargets = Arrays.copyOf(wieldTargets, wieldTargets.length);
+		m_inventorySize = inventorySize;
+		m_itemFactory = itemFactory;
+		m_loadoutItems = Arrays.copyOf(loadoutItems, loadoutItems.length);
+		m_inventoryItems = Arrays.copyOf(inventoryItems, inventoryItems.length);
+		m_model = model;
+		m_physicsBodyDescription = physicsBodyDescription;
+		m_lodPolicy = lodPolicy;
+		m_routeService = routeService;
+	}
+	
+	public AttributeSnapshot getAttributes()
+	{
+		return m_attributes;
+	}
+	
+	/**
+	 * Equips and stores newly created starting items of this template.
+	 */
+	void populate(ILoadout loadout, IItemStore inventory) throws ItemContructionException
+	{
+		for(URI item : m_loadoutItems)
+			loadout.equip(m_itemFactory.create(item));
+		
+		for(URI item : m_inventoryItems)
+			inventory.addItem(m_itemFactory.create(item));
+	}
+	
+	public DefaultRpgCharacter spawn(String instanceName) throws CharacterCreationException
+	{
+		//Verified by the constructor to clone to an action scene model.
+		IActionSceneModel model = (IActionSceneModel)m_model.clone();
+		
+		DefaultLoadout loadout = new DefaultLoadout();
+		
+		for(IWieldTarget target : m_wieldTargets)
+			loadout.addWieldTarget(target);
+		
+		DefaultInventory inventory = new DefaultInventory(m_inventorySize);
+		
+		try
+		{
+			populate(loadout, inventory);
+		} catch (ItemContructionException e)
+		{
+			throw new CharacterCreationException(instanceName, e);
+		}
+		
+		return new DefaultRpgCharacter(m_scriptBuilder, m_dialogueRouteFactory, new AttributeSet(m_attributes),
+										m_statusResolver, m_dialogueResolver, m_movementResolver, m_visionResolver, m_allegianceResolver,
+										loadout, inventory, model, m_physicsBodyDescription, instanceName,
+										m_lodPolicy, m_routeService);
+	}
+}
@@ -0,0 +1,121 @@
+/*
+ * Copyright (C) 2015 Jeremy Wildsmith.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+package io.github.jevaengine.rpg.entity.character;
+
+import io.github.jevaengine.config.IImmutableVariable;
+import io.github.jevaengine.config.NullVariable;
+import io.github.jevaengine.rpg.pathfinding.RouteService;
+
+import java.net.URI;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A character factory which parses each configuration into a {@link CharacterTemplate} once, and
+ * spawns every subsequent character of that configuration from the cached template.
+ *
+ * Characters created with an auxiliary configuration, or directly from a variable, are not of a
+ * single archetype and are constructed by the fallback factory instead.
+ *
+ * Every template, and therefore every character spawned through this factory, shares the
+ * level-of-detail policy and route service the factory is configured with.
+ *
+ * @author Jeremy
+ */
+public final class CharacterTemplateCache implements IRpgCharacterFactory
+{
+	private final ICharacterTemplateFactory m_templateFactory;
+	private final IRpgCharacterFactory m_fallback;
+	
+	private final CharacterLodPolicy m_lodPolicy;
+	private final RouteService m_routeService;
+	
+	private final ConcurrentHashMap<URI, CharacterTemplate> m_templates = new ConcurrentHashMap<>();
+	
+	public CharacterTemplateCache(ICharacterTemplateFactory templateFactory, IRpgCharacterFactory fallback, CharacterLodPolicy lodPolicy, RouteService routeService)
+	{
+		m_templateFactory = templateFactory;
+		m_fallback = fallback;
+		m_lodPolicy = lodPolicy;
+		m_routeService = routeService;
+	}
+	
+	public CharacterTemplateCache(ICharacterTemplateFactory templateFactory, IRpgCharacterFactory fallback)
+	{
+		this(templateFactory, fallback, new CharacterLodPolicy(), new RouteService());
+	}
+	
+	/**
+	 * @return The level-of-detail policy of the characters spawned through this factory, to which focus entities are added.
+	 */
+	public CharacterLodPolicy getLodPolicy()
+	{
+		return m_lodPolicy;
+	}
+	
+	public RouteService getRouteService()
+	{
+		return m_routeService;
+	}
+	
+	public CharacterTemplate getTemplate(URI config) throws CharacterCreationException
+	{
+		CharacterTemplate template = m_templates.get(config);
+		
+		if(template == null)
+		{
+			//Templates of the same configuration are interchangeable, so a race only costs a redundant parse.
+			template = m_templateFactory.create(config, m_lodPolicy, m_routeService);
+			
+			CharacterTemplate existing = m_templates.putIfAbsent(config, template);
+			
+			if(existing != null)
+				template = existing;
+		}
+		
+		return template;
+	}
+	
+	@Override
+	public IRpgCharacter create(String instanceName, URI config, IImmutableVariable auxConfig) throws CharacterCreationException
+	{
+		if(!(auxConfig instanceof NullVariable))
+			return m_fallback.create(instanceName, config, auxConfig);
+		
+		return getTemplate(config).spawn(instanceName);
+	}
+
+	@Override
+	public IRpgCharacter create(String instanceName, IImmutableVariable config) throws CharacterCreationException
+	{
+		return m_fallback.create(instanceName, config);
+	}
+	
+	/**
+	 * Discards the cached template of the given configuration, such that it is parsed again when next used.
+	 */
+	public void invalidate(URI config)
+	{
+		m_templates.remove(config);
+	}
+	
+	public void clear()
+	{
+		m_templates.clear();
+	}
+}
@@ -138,6 +138,12 @@ public final class DefaultDialogueResolverFactory implements IDialogueResolverFa
 		@Override
 		public void update(int deltaTime) { }
 
+		@Override
+		public boolean isIdle()
+		{
+			return true;
+		}
+
 		@Override
 		public IActionSceneModel decorate(IActionSceneModel subject)
 		{
@@ -18,10 +18,10 @@
  */
 package io.github.jevaengine.rpg.entity.character;
 
+import io.github.jevaengine.rpg.ObserverList;
 import io.github.jevaengine.rpg.item.*;
 import io.github.jevaengine.util.IObserverRegistry;
 import io.github.jevaengine.util.Nullable;
-import io.github.jevaengine.util.Observers;
 
 import java.util.ArrayList;
 
@@ -33,7 +33,7 @@ public final class DefaultInventory implements IItemStore
 {	
 	private final ArrayList<DefaultItemSlot> m_inventory;
 
-	private final Observers m_observers = new Observers();
+	private final ObserverList<IItemStoreObserver> m_observers = new ObserverList<>(IItemStoreObserver.class);
 
 	public DefaultInventory(int slotCount)
 	{
@@ -78,7 +78,10 @@ public final class DefaultInventory implements IItemStore
 			if (m_inventory.get(i).isEmpty())
 			{
 				m_inventory.get(i).setItem(item);
-				m_observers.raise(IItemStoreObserver.class).addItem(i, item);
+
+				for(IItemStoreObserver o : m_observers.get())
+					o.addItem(i, item);
+
 				return true;
 			}
 		}
@@ -101,7 +104,9 @@ public final class DefaultInventory implements IItemStore
 
 			if (!slot.isEmpty() && slot.getItem().equals(item))
 			{
-				m_observers.raise(IItemStoreObserver.class).removeItem(i, slot.getItem());
+				for(IItemStoreObserver o : m_observers.get())
+					o.removeItem(i, slot.getItem());
+
 				slot.clear();
 				return true;
 			}
@@ -139,11 +144,13 @@ public final class DefaultInventory implements IItemStore
 		@Override
 		public void itemChanged(IItem old, IItem newItem) {
 			if(old != null) {
-				m_observers.raise(IItemStoreObserver.class).removeItem(index, old);
+				for(IItemStoreObserver o : m_observers.get())
+					o.removeItem(index, old);
 			}
 
 			if(newItem != null) {
-				m_observers.raise(IItemStoreObserver.class).addItem(index, newItem);
+				for(IItemStoreObserver o : m_observers.get())
+					o.addItem(index, newItem);
 			}
 		}
 	}
@@ -18,12 +18,12 @@
  */
 package io.github.jevaengine.rpg.entity.character;
 
+import io.github.jevaengine.rpg.ObserverList;
 import io.github.jevaengine.rpg.item.DefaultItemSlot;
 import io.github.jevaengine.rpg.item.IItem;
 import io.github.jevaengine.rpg.item.IItem.IWieldTarget;
 import io.github.jevaengine.util.IObserverRegistry;
 import io.github.jevaengine.util.Nullable;
-import io.github.jevaengine.util.Observers;
 
 import java.util.Collection;
 import java.util.HashMap;
@@ -36,7 +36,7 @@ public final class DefaultLoadout implements ILoadout
 {
 	private HashMap<IWieldTarget, DefaultLoadoutItemSlot> m_slots = new HashMap<>();
 	
-	private Observers m_observers = new Observers();
+	private final ObserverList<ILoadoutObserver> m_observers = new ObserverList<>(ILoadoutObserver.class);
 	
 	public DefaultLoadout() { }
 	
@@ -76,9 +76,14 @@ public final class DefaultLoadout implements ILoadout
 				return item;
 
 			if(currentItem != null)
-				m_observers.raise(ILoadoutObserver.class).unequip(target);
+			{
+				for(ILoadoutObserver o : m_observers.get())
+					o.unequip(target);
+			}
+
+			for(ILoadoutObserver o : m_observers.get())
+				o.equip(item, target);
 
-			m_observers.raise(ILoadoutObserver.class).equip(item, target);
 			return targetSlot.setItem(item);
 		}
 		
@@ -93,7 +98,8 @@ public final class DefaultLoadout implements ILoadout
 		if(targetSlot == null)
 			return null;
 
-		m_observers.raise(ILoadoutObserver.class).unequip(target);
+		for(ILoadoutObserver o : m_observers.get())
+			o.unequip(target);
 	
 		return targetSlot.clear();
 	}
@@ -135,7 +141,8 @@ public final class DefaultLoadout implements ILoadout
 			
 			m_slot.setItem(item);
 			
-			m_observers.raise(ILoadoutObserver.class).equip(item, m_wieldTarget);
+			for(ILoadoutObserver o : m_observers.get())
+				o.equip(item, m_wieldTarget);
 			
 			return old;
 		}
@@ -144,8 +151,10 @@ public final class DefaultLoadout implements ILoadout
 		public IItem clear() {
 			IItem old;
 			
-			if((old = m_slot.clear()) != null)
-				m_observers.raise(ILoadoutObserver.class).unequip(m_wieldTarget);
+			if((old = m_slot.clear()) != null) {
+				for(ILoadoutObserver o : m_observers.get())
+					o.unequip(m_wieldTarget);
+			}
 		
 			return old;
 		}
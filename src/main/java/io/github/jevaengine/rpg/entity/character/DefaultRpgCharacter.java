@@ -20,18 +20,34 @@ package io.github.jevaengine.rpg.entity.character;
 
 import io.github.jevaengine.math.Vector3F;
 import io.github.jevaengine.rpg.AttributeSet;
+import io.github.jevaengine.rpg.AttributeSet.AttributeModifierType;
+import io.github.jevaengine.rpg.AttributeSet.DefaultAttributeIdentifier;
+import io.github.jevaengine.rpg.AttributeSet.IAttributeSetObserver;
+import io.github.jevaengine.rpg.AttributeStack;
+import io.github.jevaengine.rpg.TimerWheel;
 import io.github.jevaengine.rpg.IImmutableAttributeSet;
 import io.github.jevaengine.rpg.dialogue.IDialogueRoute;
+import io.github.jevaengine.rpg.dialogue.IDialogueListenerSession;
 import io.github.jevaengine.rpg.dialogue.IDialogueRouteFactory;
+import io.github.jevaengine.rpg.dialogue.IDialogueSpeakerSession;
 import io.github.jevaengine.rpg.entity.character.tasks.*;
 import io.github.jevaengine.rpg.entity.character.tasks.SearchForTask.ISearchListener;
+import io.github.jevaengine.rpg.entity.character.IDialogueResolver.IDialogueResolverObserver;
+import io.github.jevaengine.rpg.entity.character.IImmutableLoadout.ILoadoutObserver;
+import io.github.jevaengine.rpg.entity.character.ILoadout.ILoadoutSlot;
+import io.github.jevaengine.rpg.item.IItem;
+import io.github.jevaengine.rpg.item.IItem.IWieldTarget;
+import io.github.jevaengine.rpg.item.IItemFactory.ItemContructionException;
 import io.github.jevaengine.rpg.item.IItemStore;
+import io.github.jevaengine.rpg.pathfinding.RouteService;
+import io.github.jevaengine.rpg.pathfinding.SharedEntityRoutingRules;
 import io.github.jevaengine.script.IFunctionFactory;
 import io.github.jevaengine.script.IScriptBuilder;
 import io.github.jevaengine.script.IScriptBuilder.ScriptConstructionException;
 import io.github.jevaengine.script.ScriptEvent;
 import io.github.jevaengine.script.ScriptExecuteException;
 import io.github.jevaengine.util.IObserverRegistry;
+import io.github.jevaengine.util.Nullable;
 import io.github.jevaengine.util.Observers;
 import io.github.jevaengine.world.Direction;
 import io.github.jevaengine.world.World;
@@ -40,8 +56,6 @@ import io.github.jevaengine.world.entity.IEntity;
 import io.github.jevaengine.world.entity.IEntityTaskModel;
 import io.github.jevaengine.world.entity.WorldAssociationException;
 import io.github.jevaengine.world.entity.tasks.ITask;
-import io.github.jevaengine.world.pathfinding.AStarRouteFactory;
-import io.github.jevaengine.world.pathfinding.EntityRoutingRules;
 import io.github.jevaengine.world.physics.IPhysicsBody;
 import io.github.jevaengine.world.physics.NullPhysicsBody;
 import io.github.jevaengine.world.physics.PhysicsBodyDescription;
@@ -53,19 +67,29 @@ import org.slf4j.LoggerFactory;
 
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 public class DefaultRpgCharacter implements IRpgCharacter
 {	
+	//Shared by characters constructed without a policy or route service, so they share population counts and cached routes.
+	//Factories should supply their own, configured, policy and route service instead; see CharacterTemplateCache.
+	private static final CharacterLodPolicy DEFAULT_LOD_POLICY = new CharacterLodPolicy();
+	private static final RouteService DEFAULT_ROUTE_SERVICE = new RouteService();
+	
 	private final Logger m_logger = LoggerFactory.getLogger(DefaultRpgCharacter.class);
 
 	private final PhysicsBodyDescription m_physicsBodyDescription;	
 	
-	private final String m_name;
+	private String m_name;
 
 	private final AttributeSet m_attributes;
+	private final AttributeStack m_effectiveAttributes;
+	@Nullable
+	private TimerWheel m_timerWheel = null;
 
 	private final IDialogueResolver m_dialogueResolver;
 	private final IMovementResolver m_movementResolver;
@@ -82,6 +106,10 @@ public class DefaultRpgCharacter implements IRpgCharacter
 	private final IEntityTaskModel m_taskModel;
 	
 	private final Observers m_observers = new Observers();
+	private final ObserverRegistry m_observerRegistry = new ObserverRegistry();
+	private final List<Object> m_constructionObservers = new ArrayList<>();
+	private boolean m_isConstructed = false;
+	
 	private final RpgCharacterBridge m_bridge;
 
 	private final ISceneModel m_model;
@@ -92,6 +120,26 @@ public class DefaultRpgCharacter implements IRpgCharacter
 	
 	private final Map<String, Integer> m_flags = new HashMap<>();
 	
+	private final CharacterLodPolicy.LodState m_lodState;
+	private final RouteService m_routeService;
+	
+	@Nullable
+	private RpgCharacterUpdateScheduler m_scheduler = null;
+	private int m_scheduleSequence = 0;
+	private int m_awakeIndex = -1;
+	
+	private volatile boolean m_isDormant = false;
+	
+	@Nullable
+	private CharacterPool m_pool = null;
+	private URI m_poolConfig;
+	private CharacterTemplate m_template;
+	private boolean m_isPooled = false;
+	
+	/**
+	 * @deprecated Characters constructed this way share an unconfigurable default level-of-detail policy and route service.
+	 */
+	@Deprecated
 	public DefaultRpgCharacter(IScriptBuilder scriptBuilder,
 						IDialogueRouteFactory dialogueRotueFactory,
 						AttributeSet attributes,
@@ -105,9 +153,31 @@ public class DefaultRpgCharacter implements IRpgCharacter
 						IActionSceneModel model,
 						PhysicsBodyDescription physicsBodyDescription,
 						String name)
-
+	{
+		this(scriptBuilder, dialogueRotueFactory, attributes, statusResolver, dialogueResolver,
+				movementResolver, visionResolver, allegianceResolver, loadout, inventory, model,
+				physicsBodyDescription, name, DEFAULT_LOD_POLICY, DEFAULT_ROUTE_SERVICE);
+	}
+	
+	public DefaultRpgCharacter(IScriptBuilder scriptBuilder,
+						IDialogueRouteFactory dialogueRotueFactory,
+						AttributeSet attributes,
+						IStatusResolverFactory statusResolver,
+						IDialogueResolverFactory dialogueResolver,
+						IMovementResolverFactory movementResolver,
+						IVisionResolverFactory visionResolver,
+						IAllegianceResolverFactory allegianceResolver,
+						ILoadout loadout,
+						IItemStore inventory,
+						IActionSceneModel model,
+						PhysicsBodyDescription physicsBodyDescription,
+						String name,
+						CharacterLodPolicy lodPolicy,
+						RouteService routeService)
 	{
 		m_dialogueRouteFactory = dialogueRotueFactory;
+		m_lodState = lodPolicy.createState();
+		m_routeService = routeService;
 		
 		m_name = name;
 		m_physicsBodyDescription = physicsBodyDescription;
@@ -118,6 +188,16 @@ public class DefaultRpgCharacter implements IRpgCharacter
 		m_taskModel = new DefaultEntityTaskModel(this);
 	
 		m_attributes = attributes;
+		m_effectiveAttributes = new AttributeStack(m_attributes);
+		
+		LoadoutAttributeObserver loadoutObserver = new LoadoutAttributeObserver();
+		m_loadout.getObservers().add(loadoutObserver);
+		
+		for(ILoadoutSlot slot : m_loadout.getSlots())
+		{
+			if(!slot.isEmpty())
+				loadoutObserver.equip(slot.getItem(), slot.getWieldTarget());
+		}
 		
 		m_dialogueResolver = dialogueResolver.create(this, m_attributes, model);
 		m_statusResolver = statusResolver.create(this, m_attributes, model);
@@ -140,6 +220,10 @@ public class DefaultRpgCharacter implements IRpgCharacter
 		
 		m_model = initialModel;
 		
+		WakeObserver wakeObserver = new WakeObserver();
+		m_attributes.getObservers().add(wakeObserver);
+		m_dialogueResolver.getObservers().add(wakeObserver);
+		
 		m_bridge = new RpgCharacterBridge(scriptBuilder.getFunctionFactory(), scriptBuilder.getUri());
 		
 		try
@@ -149,17 +233,101 @@ public class DefaultRpgCharacter implements IRpgCharacter
 		{
 			m_logger.error("Failed instantiate behavior for " + getInstanceName() + ". Assuming null behavior.", e);	
 		}
-	
+		
+		m_isConstructed = true;
 	}
 
 	@Override
 	public void dispose()
 	{
+		if(m_isPooled)
+			return;
+		
 		if(m_world != null)
 			m_world.removeEntity(this);
 		
+		if(m_scheduler != null)
+			m_scheduler.remove(this);
+		
+		if(m_pool != null && m_pool.canRelease(m_poolConfig) && reset())
+		{
+			m_isPooled = true;
+			m_pool.release(this, m_poolConfig);
+			return;
+		}
+		
 		m_model.dispose();
+		m_effectiveAttributes.clear();
 		m_observers.clear();
+		m_lodState.leaveBand();
+	}
+	
+	/**
+	 * Associates this character with the pool it is returned to when disposed, and the template
+	 * it was spawned from and is reset to.
+	 */
+	void setPool(@Nullable CharacterPool pool, URI config, CharacterTemplate template)
+	{
+		m_pool = pool;
+		m_poolConfig = config;
+		m_template = template;
+		
+		if(pool == null)
+			m_isPooled = false;
+	}
+	
+	/**
+	 * Takes this character out of its pool under the given instance name.
+	 */
+	void acquire(String name)
+	{
+		m_name = name;
+		m_isPooled = false;
+	}
+	
+	/**
+	 * Returns this character to the state of a character freshly spawned from its template; starting
+	 * items are created anew, as the previous ones may since have been given away.
+	 * 
+	 * The script, resolvers and scene model are retained, and so is their internal state (e.g. script
+	 * variables or a vision resolver's cache); scripts of pooled characters must not rely on a fresh
+	 * instance. Of the observers registered to this character, only those registered while it was
+	 * constructed are retained. Observers registered by other objects to its attributes, inventory or
+	 * loadout are not removed, and must be removed by their owners as with any disposed character.
+	 * 
+	 * @return Whether the character could be reset, otherwise it must not be reused.
+	 */
+	private boolean reset()
+	{
+		m_taskModel.cancelTasks();
+		m_flags.clear();
+		
+		m_loadout.clear();
+		m_inventory.clear();
+		
+		m_effectiveAttributes.clear();
+		m_effectiveAttributes.addLayer(m_attributes);
+		
+		try
+		{
+			m_template.populate(m_loadout, m_inventory);
+		} catch (ItemContructionException e)
+		{
+			m_logger.error("Unable to restore starting items of " + getInstanceName() + ". Character will not be reused.", e);
+			return false;
+		}
+		
+		m_attributes.restore(m_template.getAttributes());
+		
+		m_observers.clear();
+		
+		for(Object o : m_constructionObservers)
+			m_observers.add(o);
+		
+		m_isDormant = false;
+		m_lodState.leaveBand();
+		
+		return true;
 	}
 	
 	private void createPhysicsBody()
@@ -184,6 +352,37 @@ public class DefaultRpgCharacter implements IRpgCharacter
 	public IImmutableAttributeSet getAttributes() {
 		return m_attributes;
 	}
+	
+	/**
+	 * The character's attributes with the attributes of equipped items and any additional
+	 * layers (e.g. buffs) applied.
+	 */
+	public AttributeStack getEffectiveAttributes()
+	{
+		return m_effectiveAttributes;
+	}
+	
+	/**
+	 * Timer used to expire timed attribute modifiers. Scheduled characters share their scheduler's
+	 * wheel; others advance a wheel of their own, created when first needed.
+	 */
+	public TimerWheel getTimerWheel()
+	{
+		if(m_scheduler != null)
+			return m_scheduler.getTimerWheel();
+		
+		if(m_timerWheel == null)
+			m_timerWheel = new TimerWheel();
+		
+		return m_timerWheel;
+	}
+	
+	private void updateTimerWheel(int delta)
+	{
+		//A character scheduled after using a wheel of its own continues to advance it until its timers expire.
+		if(m_timerWheel != null)
+			m_timerWheel.update(delta);
+	}
 
 	@Override
 	public IItemStore getInventory()
@@ -255,6 +454,7 @@ public class DefaultRpgCharacter implements IRpgCharacter
 		m_observers.raise(IEntityWorldObserver.class).leaveWorld();
 		
 		m_world = null;
+		m_lodState.leaveBand();
 		
 		destoryPhysicsBody();
 	}
@@ -289,16 +489,21 @@ public class DefaultRpgCharacter implements IRpgCharacter
 		return m_body;
 	}
 
+	/**
+	 * Tasks are added to a character through its task model, so any access to the task model wakes
+	 * a dormant character.
+	 */
 	@Override
 	public IEntityTaskModel getTaskModel()
 	{
+		wake();
 		return m_taskModel;
 	}
 
 	@Override
 	public IObserverRegistry getObservers()
 	{
-		return m_observers;
+		return m_observerRegistry;
 	}
 
 	@Override
@@ -307,21 +512,226 @@ public class DefaultRpgCharacter implements IRpgCharacter
 		return m_bridge;
 	}
 
+	/**
+	 * While scheduled, this character's update is driven by an {@link RpgCharacterUpdateScheduler}
+	 * and {@link #update(int)} does nothing.
+	 */
+	void setScheduler(@Nullable RpgCharacterUpdateScheduler scheduler, int sequence)
+	{
+		m_scheduler = scheduler;
+		m_scheduleSequence = sequence;
+	}
+	
+	@Nullable
+	RpgCharacterUpdateScheduler getScheduler()
+	{
+		return m_scheduler;
+	}
+	
+	int getScheduleSequence()
+	{
+		return m_scheduleSequence;
+	}
+	
+	/**
+	 * The index of this character in its scheduler's list of awake characters, or -1 if it is not in that list.
+	 */
+	int getAwakeIndex()
+	{
+		return m_awakeIndex;
+	}
+	
+	void setAwakeIndex(int awakeIndex)
+	{
+		m_awakeIndex = awakeIndex;
+	}
+	
+	public boolean isDormant()
+	{
+		return m_isDormant;
+	}
+	
+	void setDormant(boolean isDormant)
+	{
+		m_isDormant = isDormant;
+	}
+	
 	@Override
-	public void update(int delta)
+	public void wake()
+	{
+		if(!m_isDormant)
+			return;
+		
+		m_isDormant = false;
+		
+		if(m_scheduler != null)
+			m_scheduler.wake(this);
+	}
+	
+	private boolean canSleep()
 	{
+		//Characters whose scene model is updated stay awake, so that their animations do not freeze in view.
+		if(m_lodState.isModelUpdated())
+			return false;
+		
+		if((m_timerWheel != null && m_timerWheel.getScheduledCount() > 0) || !m_taskModel.isIdle())
+			return false;
+		
+		for(IRpgCharacterMechanicResolver r : m_resolvers)
+		{
+			if(!r.isIdle())
+				return false;
+		}
+		
+		return true;
+	}
+	
+	/**
+	 * Sense phase of the update. Only the vision and allegiance resolvers are updated, which may
+	 * read the state of other characters but only modify their own; the scheduler may therefore
+	 * run this phase for many characters concurrently.
+	 */
+	void updatePerception(int delta)
+	{
+		m_visionResolver.update(delta);
+		m_allegianceResolver.update(delta);
+	}
+	
+	/**
+	 * Commit phase of the update, which runs tasks and the remaining resolvers, and may modify the
+	 * world. Characters sharing a world must never have their commit phase run concurrently.
+	 */
+	void updateState(int delta)
+	{
+		updateTimerWheel(delta);
 		m_taskModel.update(delta);
 		
 		for(IRpgCharacterMechanicResolver r : m_resolvers)
-			r.update(delta);
+		{
+			if(r != m_visionResolver && r != m_allegianceResolver)
+				r.update(delta);
+		}
+		
+		updateModel(delta);
+	}
+	
+	private void updateModel(int delta)
+	{
+		if(m_lodState.isModelUpdated())
+			m_model.update(delta);
+		
+		m_isDormant = canSleep();
+		
+		//Dormant characters are not simulated, so they do not count towards their band until woken.
+		if(m_isDormant)
+			m_lodState.leaveBand();
+	}
+	
+	/**
+	 * Advances this character's level-of-detail state.
+	 * 
+	 * @return The delta to update this character with, or a negative value if this character is not due to be updated.
+	 */
+	int advanceLod(int delta)
+	{
+		return m_lodState.advance(this, delta) ? m_lodState.consumeElapsed() : -1;
+	}
+	
+	@Override
+	public void update(int delta)
+	{
+		if(m_scheduler != null || m_isDormant)
+			return;
+		
+		int elapsed = advanceLod(delta);
+		
+		if(elapsed < 0)
+			return;
+		
+		//Unscheduled characters update their tasks before their resolvers; the phases are only split by the scheduler.
+		updateTimerWheel(elapsed);
+		m_taskModel.update(elapsed);
+		
+		for(IRpgCharacterMechanicResolver r : m_resolvers)
+			r.update(elapsed);
+		
+		updateModel(elapsed);
+	}
+	
+	private final class ObserverRegistry implements IObserverRegistry
+	{
+		@Override
+		public void add(Object o)
+		{
+			if(!m_isConstructed)
+				m_constructionObservers.add(o);
+			
+			m_observers.add(o);
+		}
+
+		@Override
+		public void remove(Object o)
+		{
+			m_constructionObservers.remove(o);
+			m_observers.remove(o);
+		}
+	}
+	
+	private final class WakeObserver implements IAttributeSetObserver, IDialogueResolverObserver
+	{
+		@Override
+		public void changed(int id, float delta)
+		{
+			wake();
+		}
+
+		@Override
+		public void speaking(IDialogueSpeakerSession session)
+		{
+			wake();
+		}
+
+		@Override
+		public void listening(IDialogueListenerSession session)
+		{
+			wake();
+		}
+	}
+	
+	private final class LoadoutAttributeObserver implements ILoadoutObserver
+	{
+		private final Map<IWieldTarget, AttributeSet> m_equipped = new HashMap<>();
 		
-		m_model.update(delta);
+		@Override
+		public void unequip(IWieldTarget wieldTarget)
+		{
+			AttributeSet removed = m_equipped.remove(wieldTarget);
+			
+			if(removed != null)
+				m_effectiveAttributes.removeLayer(removed);
+		}
+
+		@Override
+		public void equip(IItem item, IWieldTarget wieldTarget)
+		{
+			AttributeSet attributes = item.getAttributes();
+			AttributeSet replaced = m_equipped.put(wieldTarget, attributes);
+			
+			if(replaced == attributes)
+				return;
+			
+			if(replaced != null)
+				m_effectiveAttributes.removeLayer(replaced);
+			
+			m_effectiveAttributes.addLayer(attributes);
+		}
 	}
 	
 	public class RpgCharacterBridge extends EntityBridge
 	{
 		private final ITask m_lookTask;
 		public final ScriptEvent onLookFound;
+		public final ScriptEvent onLookLost;
 		public final ScriptEvent onDie;
 		public final ScriptEvent onRevive;
 		
@@ -330,6 +740,7 @@ public class DefaultRpgCharacter implements IRpgCharacter
 			super(DefaultRpgCharacter.this, functionFactory);
 			
 			onLookFound = new ScriptEvent(functionFactory);
+			onLookLost = new ScriptEvent(functionFactory);
 			onDie = new ScriptEvent(functionFactory);
 			onRevive = new ScriptEvent(functionFactory);
 			
@@ -370,6 +781,17 @@ public class DefaultRpgCharacter implements IRpgCharacter
 						m_logger.error("Error occured executing onLookFound script event", e);
 					}
 				}
+				
+				@Override
+				public void lost(IRpgCharacter entity)
+				{
+					try {
+						onLookLost.fire(entity.getBridge());
+					} catch (ScriptExecuteException e)
+					{
+						m_logger.error("Error occured executing onLookLost script event", e);
+					}
+				}
 			});
 		}
 		
@@ -383,11 +805,23 @@ public class DefaultRpgCharacter implements IRpgCharacter
 			return m_statusResolver.isDead();
 		}
 		
+		public void addModifier(String attribute, String source, boolean isMultiplicative, float amount, int duration)
+		{
+			m_attributes.addModifier(new DefaultAttributeIdentifier(attribute), source,
+										isMultiplicative ? AttributeModifierType.Multiplicative : AttributeModifierType.Additive,
+										amount, getTimerWheel(), duration);
+		}
+		
+		public void removeModifiers(String source)
+		{
+			m_attributes.removeModifiers(source);
+		}
+		
 		public void wonder(int radius)
 		{
 			getTaskModel().addTask(new WonderTask(
-								new AStarRouteFactory(),
-								new EntityRoutingRules(DefaultRpgCharacter.this, Direction.ALL_DIRECTIONS), radius));
+								m_routeService,
+								new SharedEntityRoutingRules(DefaultRpgCharacter.this, Direction.ALL_DIRECTIONS), radius));
 		}
 		
 		public void speakTo(EntityBridge target)
@@ -422,14 +856,14 @@ public class DefaultRpgCharacter implements IRpgCharacter
 		
 		public void moveTo(Vector3F location, float arrivalTolorance, float waypointTolorance)
 		{
-			getTaskModel().addTask(new MovementTask(new AStarRouteFactory(), new EntityRoutingRules(DefaultRpgCharacter.this, Direction.ALL_DIRECTIONS), location.getXy(), arrivalTolorance, Integer.MAX_VALUE));
+			getTaskModel().addTask(new MovementTask(m_routeService, new SharedEntityRoutingRules(DefaultRpgCharacter.this, Direction.ALL_DIRECTIONS), location.getXy(), arrivalTolorance, Integer.MAX_VALUE, m_lodState.getBand()));
 		}
 		
 		public void moveTo(EntityBridge bridge)
 		{
 			IEntity owner = bridge.getEntity();
 			
-			getTaskModel().addTask(new FollowEntityTask(new AStarRouteFactory(), new EntityRoutingRules(DefaultRpgCharacter.this, Direction.ALL_DIRECTIONS), owner));
+			getTaskModel().addTask(new FollowEntityTask(m_routeService, new SharedEntityRoutingRules(DefaultRpgCharacter.this, Direction.ALL_DIRECTIONS), owner));
 		}
 		
 		public boolean isConflictingAllegiance(EntityBridge otherBridge)
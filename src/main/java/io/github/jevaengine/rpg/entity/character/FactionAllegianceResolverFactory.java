@@ -0,0 +1,125 @@
+/*
+ * Copyright (C) 2015 Jeremy Wildsmith.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+package io.github.jevaengine.rpg.entity.character;
+
+import io.github.jevaengine.rpg.AttributeSet;
+import io.github.jevaengine.world.entity.IEntity;
+import io.github.jevaengine.world.scene.model.IActionSceneModel;
+
+/**
+ * Creates allegiance resolvers which place their host in a fixed set of factions of a
+ * {@link FactionTable}. Characters conflict when any of their factions are hostile to one another.
+ *
+ * @author Jeremy
+ */
+public final class FactionAllegianceResolverFactory implements IAllegianceResolverFactory
+{
+	private final FactionTable m_table;
+	private final long m_factionMask;
+
+	public FactionAllegianceResolverFactory(FactionTable table, String ... factions)
+	{
+		m_table = table;
+		m_factionMask = table.getMask(factions);
+	}
+
+	@Override
+	public IAllegianceResolver create(IRpgCharacter host, AttributeSet attributes, IActionSceneModel model)
+	{
+		return new FactionAllegianceResolver(m_table, m_factionMask);
+	}
+
+	private static final class FactionAllegianceResolver implements IAllegianceResolver
+	{
+		private final FactionTable m_table;
+		private final long m_factionMask;
+
+		private long m_hostileMask;
+		private int m_tableVersion;
+
+		public FactionAllegianceResolver(FactionTable table, long factionMask)
+		{
+			m_table = table;
+			m_factionMask = factionMask;
+			refresh();
+		}
+
+		private void refresh()
+		{
+			m_tableVersion = m_table.getVersion();
+			m_hostileMask = m_table.getHostileMask(m_factionMask);
+		}
+
+		private long getHostileMask()
+		{
+			if(m_tableVersion != m_table.getVersion())
+				refresh();
+
+			return m_hostileMask;
+		}
+
+		@Override
+		public boolean isConflictingAllegiance(IRpgCharacter subject)
+		{
+			IAllegianceResolver other = subject.getAllegianceResolver();
+
+			//Characters outside of any faction are not hostile to anyone.
+			if(!(other instanceof FactionAllegianceResolver))
+				return false;
+
+			return (getHostileMask() & ((FactionAllegianceResolver)other).m_factionMask) != 0;
+		}
+
+		@Override
+		public int getConflicting(IEntity[] candidates, int count, IRpgCharacter[] conflicting)
+		{
+			long hostileMask = getHostileMask();
+			int found = 0;
+
+			for(int i = 0; i < count; i++)
+			{
+				if(!(candidates[i] instanceof IRpgCharacter))
+					continue;
+
+				IRpgCharacter candidate = (IRpgCharacter)candidates[i];
+				IAllegianceResolver other = candidate.getAllegianceResolver();
+
+				if(other instanceof FactionAllegianceResolver && (hostileMask & ((FactionAllegianceResolver)other).m_factionMask) != 0)
+					conflicting[found++] = candidate;
+			}
+
+			return found;
+		}
+
+		@Override
+		public void update(int deltaTime) { }
+
+		@Override
+		public boolean isIdle()
+		{
+			return true;
+		}
+
+		@Override
+		public IActionSceneModel decorate(IActionSceneModel subject)
+		{
+			return subject;
+		}
+	}
+}
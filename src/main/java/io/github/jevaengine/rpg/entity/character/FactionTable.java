@@ -0,0 +1,115 @@
+/*
+ * Copyright (C) 2015 Jeremy Wildsmith.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+package io.github.jevaengine.rpg.entity.character;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Interns faction names to bit indexes and records which factions are hostile to one another, as
+ * a bit matrix. A set of factions is represented by a mask of their bits, so whether two sets of
+ * factions are hostile is resolved by a single AND of one set's hostile mask with the other's
+ * faction mask.
+ *
+ * Hostility is symmetric. At most {@link #MAX_FACTIONS} factions may be interned.
+ *
+ * @author Jeremy
+ */
+public final class FactionTable
+{
+	public static final int MAX_FACTIONS = Long.SIZE;
+
+	private final Map<String, Integer> m_factions = new HashMap<>();
+	private final long[] m_hostility = new long[MAX_FACTIONS];
+
+	private volatile int m_version = 0;
+
+	public synchronized int getFaction(String name)
+	{
+		Integer index = m_factions.get(name);
+
+		if(index != null)
+			return index;
+
+		if(m_factions.size() == MAX_FACTIONS)
+			throw new IllegalStateException("No more than " + MAX_FACTIONS + " factions may be declared.");
+
+		index = m_factions.size();
+		m_factions.put(name, index);
+
+		return index;
+	}
+
+	public synchronized long getMask(String ... factions)
+	{
+		long mask = 0;
+
+		for(String f : factions)
+			mask |= 1L << getFaction(f);
+
+		return mask;
+	}
+
+	public synchronized void setHostile(String a, String b, boolean isHostile)
+	{
+		int indexA = getFaction(a);
+		int indexB = getFaction(b);
+
+		if(isHostile)
+		{
+			m_hostility[indexA] |= 1L << indexB;
+			m_hostility[indexB] |= 1L << indexA;
+		} else
+		{
+			m_hostility[indexA] &= ~(1L << indexB);
+			m_hostility[indexB] &= ~(1L << indexA);
+		}
+
+		m_version++;
+	}
+
+	public synchronized boolean isHostile(String a, String b)
+	{
+		return (m_hostility[getFaction(a)] & (1L << getFaction(b))) != 0;
+	}
+
+	/**
+	 * @return The mask of the factions hostile to any of the factions in the given mask.
+	 */
+	public synchronized long getHostileMask(long factionMask)
+	{
+		long hostile = 0;
+
+		for(int i = 0; i < MAX_FACTIONS; i++)
+		{
+			if((factionMask & (1L << i)) != 0)
+				hostile |= m_hostility[i];
+		}
+
+		return hostile;
+	}
+
+	/**
+	 * @return A version which changes whenever hostility between factions changes.
+	 */
+	public int getVersion()
+	{
+		return m_version;
+	}
+}
@@ -18,12 +18,33 @@
  */
 package io.github.jevaengine.rpg.entity.character;
 
+import io.github.jevaengine.world.entity.IEntity;
 import io.github.jevaengine.world.scene.model.IActionSceneModel;
 
 public interface IAllegianceResolver extends IRpgCharacterMechanicResolver
 {
 	boolean isConflictingAllegiance(IRpgCharacter subject);
 	
+	/**
+	 * Collects the characters among the candidates (e.g. those returned by a vision resolver) whose
+	 * allegiance conflicts with the host's, without allocating.
+	 * 
+	 * @param conflicting Receives the conflicting characters; must be able to hold count entries.
+	 * @return The number of conflicting characters.
+	 */
+	default int getConflicting(IEntity[] candidates, int count, IRpgCharacter[] conflicting)
+	{
+		int found = 0;
+		
+		for(int i = 0; i < count; i++)
+		{
+			if(candidates[i] instanceof IRpgCharacter && isConflictingAllegiance((IRpgCharacter)candidates[i]))
+				conflicting[found++] = (IRpgCharacter)candidates[i];
+		}
+		
+		return found;
+	}
+	
 	final class NullAllegianceResolver implements IAllegianceResolver
 	{
 		@Override
@@ -36,6 +57,12 @@ public interface IAllegianceResolver extends IRpgCharacterMechanicResolver
 		public void update(int deltaTime) {
 		}
 
+		@Override
+		public boolean isIdle()
+		{
+			return true;
+		}
+
 		@Override
 		public IActionSceneModel decorate(IActionSceneModel subject)
 		{
@@ -0,0 +1,33 @@
+/*
+ * Copyright (C) 2015 Jeremy Wildsmith.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+package io.github.jevaengine.rpg.entity.character;
+
+import io.github.jevaengine.rpg.entity.character.IRpgCharacterFactory.CharacterCreationException;
+import io.github.jevaengine.rpg.pathfinding.RouteService;
+
+import java.net.URI;
+
+public interface ICharacterTemplateFactory
+{
+	/**
+	 * @param lodPolicy The level-of-detail policy of the characters spawned from the created template.
+	 * @param routeService The route service of the characters spawned from the created template.
+	 */
+	CharacterTemplate create(URI config, CharacterLodPolicy lodPolicy, RouteService routeService) throws CharacterCreationException;
+}
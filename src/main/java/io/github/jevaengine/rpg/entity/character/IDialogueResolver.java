@@ -83,5 +83,11 @@ public interface IDialogueResolver extends IRpgCharacterMechanicResolver
 		
 		@Override
 		public void update(int deltaTime) { }
+		
+		@Override
+		public boolean isIdle()
+		{
+			return true;
+		}
 	}
 }
@@ -69,6 +69,12 @@ public interface IMovementResolver extends IRpgCharacterMechanicResolver
 		@Override
 		public void update(int deltaTime) { }
 		
+		@Override
+		public boolean isIdle()
+		{
+			return true;
+		}
+		
 		@Override
 		public IActionSceneModel decorate(IActionSceneModel subject)
 		{
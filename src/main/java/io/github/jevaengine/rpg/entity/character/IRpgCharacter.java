@@ -55,6 +55,11 @@ public interface IRpgCharacter extends IEntity
 	IAllegianceResolver getAllegianceResolver();
 
 	IImmutableAttributeSet getAttributes();
+	
+	/**
+	 * Wakes this character if it has become dormant, so that it resumes being updated.
+	 */
+	default void wake() { }
 
 	public static final class NullRpgCharacter implements IRpgCharacter
 	{
@@ -6,4 +6,14 @@ public interface IRpgCharacterMechanicResolver
 {
 	void update(int deltaTime);
 	IActionSceneModel decorate(IActionSceneModel subject);
+	
+	/**
+	 * Whether this resolver currently has no work to do on update. A character beyond its level-of-detail
+	 * model cut-off band, whose task model is empty and whose resolvers are all idle may become dormant
+	 * and stop being updated until it is woken.
+	 */
+	default boolean isIdle()
+	{
+		return false;
+	}
 }
@@ -60,5 +60,11 @@ public interface IStatusResolver extends IRpgCharacterMechanicResolver
 		
 		@Override
 		public void update(int deltaTime) { }
+		
+		@Override
+		public boolean isIdle()
+		{
+			return true;
+		}
 	}
 }
@@ -41,5 +41,11 @@ public interface IVisionResolver extends IRpgCharacterMechanicResolver
 		
 		@Override
 		public void update(int deltaTime) { }
+		
+		@Override
+		public boolean isIdle()
+		{
+			return true;
+		}
 	}
 }
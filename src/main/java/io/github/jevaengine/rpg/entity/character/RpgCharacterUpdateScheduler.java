@@ -0,0 +1,425 @@
+/*
+ * Copyright (C) 2015 Jeremy Wildsmith.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+package io.github.jevaengine.rpg.entity.character;
+
+import io.github.jevaengine.rpg.TimerWheel;
+import io.github.jevaengine.world.World;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Updates a population of characters across multiple cores in two phases. First, every
+ * character's perception (vision and allegiance) is updated in parallel against the state left by
+ * the previous frame. Then each character's tasks, remaining resolvers and model are updated.
+ *
+ * In deterministic mode, the second phase is run serially in the order characters were added,
+ * which yields the same results as running this scheduler on a single thread. Otherwise, the
+ * second phase is partitioned by world: characters in different worlds are updated concurrently,
+ * while characters sharing a world are updated serially.
+ *
+ * Characters which their {@link CharacterLodPolicy} does not consider due are skipped for the frame.
+ * Dormant characters are removed from the update list entirely until they are woken. Only
+ * characters which do not update their scene model may become dormant.
+ *
+ * Scheduled characters ignore {@link DefaultRpgCharacter#update(int)}, so that the world does not
+ * update them a second time; {@link #update(int)} must be invoked once per frame instead. Disposed
+ * characters remove themselves from their scheduler.
+ *
+ * @author Jeremy
+ */
+public final class RpgCharacterUpdateScheduler
+{
+	private static final int SPLIT_THRESHOLD = 64;
+
+	private static final Comparator<DefaultRpgCharacter> SCHEDULE_ORDER = new Comparator<DefaultRpgCharacter>() {
+		@Override
+		public int compare(DefaultRpgCharacter a, DefaultRpgCharacter b)
+		{
+			return Integer.compare(a.getScheduleSequence(), b.getScheduleSequence());
+		}
+	};
+
+	private final ForkJoinPool m_pool;
+	private final boolean m_isDeterministic;
+
+	private final Set<DefaultRpgCharacter> m_characters = Collections.newSetFromMap(new IdentityHashMap<DefaultRpgCharacter, Boolean>());
+	private final List<DefaultRpgCharacter> m_awake = new ArrayList<>();
+	private boolean m_isAwakeSorted = true;
+	private int m_nextSequence = 0;
+
+	private final ConcurrentLinkedQueue<DefaultRpgCharacter> m_wakes = new ConcurrentLinkedQueue<>();
+	private final ConcurrentLinkedQueue<DefaultRpgCharacter> m_removals = new ConcurrentLinkedQueue<>();
+
+	private final TimerWheel m_timerWheel = new TimerWheel();
+
+	private DefaultRpgCharacter[] m_active = new DefaultRpgCharacter[0];
+	private int[] m_deltas = new int[0];
+
+	private final Map<World, List<Integer>> m_partitions = new IdentityHashMap<>();
+
+	public RpgCharacterUpdateScheduler(ForkJoinPool pool, boolean isDeterministic)
+	{
+		m_pool = pool;
+		m_isDeterministic = isDeterministic;
+	}
+
+	public RpgCharacterUpdateScheduler(boolean isDeterministic)
+	{
+		this(ForkJoinPool.commonPool(), isDeterministic);
+	}
+
+	public boolean isDeterministic()
+	{
+		return m_isDeterministic;
+	}
+
+	/**
+	 * @throws IllegalStateException If the character is scheduled by another scheduler, which has not yet applied its removal.
+	 */
+	public void add(DefaultRpgCharacter character)
+	{
+		applyRemovals();
+
+		if(character.getScheduler() != null && character.getScheduler() != this)
+			throw new IllegalStateException("Character " + character.getInstanceName() + " is scheduled by another scheduler.");
+
+		if(!m_characters.add(character))
+			return;
+
+		character.setScheduler(this, m_nextSequence++);
+
+		if(!character.isDormant())
+			awaken(character);
+	}
+
+	/**
+	 * Characters may be disposed of from any thread, including those updating other characters
+	 * during {@link #update(int)}, so removals are queued and applied by the thread driving this
+	 * scheduler before it next adds or updates characters.
+	 */
+	public void remove(DefaultRpgCharacter character)
+	{
+		m_removals.add(character);
+	}
+
+	private void applyRemovals()
+	{
+		for(DefaultRpgCharacter c; (c = m_removals.poll()) != null;)
+		{
+			if(!m_characters.remove(c))
+				continue;
+
+			removeAwake(c);
+			c.setScheduler(null, 0);
+		}
+	}
+
+	public void clear()
+	{
+		for(DefaultRpgCharacter c : m_characters)
+		{
+			c.setScheduler(null, 0);
+			c.setAwakeIndex(-1);
+		}
+
+		m_characters.clear();
+		m_awake.clear();
+		m_wakes.clear();
+		m_removals.clear();
+	}
+
+	/**
+	 * Characters may be woken from any thread, including those updating other characters during
+	 * {@link #update(int)}, so wakes are queued and applied by the thread driving this scheduler.
+	 */
+	void wake(DefaultRpgCharacter character)
+	{
+		m_wakes.add(character);
+	}
+
+	private void applyWakes()
+	{
+		for(DefaultRpgCharacter c; (c = m_wakes.poll()) != null;)
+		{
+			if(c.getScheduler() != this)
+				continue;
+
+			//The character may have been put to sleep by its own update after it was woken.
+			c.setDormant(false);
+			awaken(c);
+		}
+	}
+
+	private void awaken(DefaultRpgCharacter character)
+	{
+		if(character.getAwakeIndex() >= 0)
+			return;
+
+		character.setAwakeIndex(m_awake.size());
+		m_awake.add(character);
+		m_isAwakeSorted = false;
+	}
+
+	private void removeAwake(DefaultRpgCharacter character)
+	{
+		int index = character.getAwakeIndex();
+
+		if(index < 0)
+			return;
+
+		DefaultRpgCharacter last = m_awake.remove(m_awake.size() - 1);
+
+		if(last != character)
+		{
+			m_awake.set(index, last);
+			last.setAwakeIndex(index);
+			m_isAwakeSorted = false;
+		}
+
+		character.setAwakeIndex(-1);
+	}
+
+	/**
+	 * The wheel shared by every scheduled character to expire timed attribute modifiers, advanced
+	 * once per update regardless of how many characters are scheduled or due.
+	 */
+	public TimerWheel getTimerWheel()
+	{
+		return m_timerWheel;
+	}
+
+	public int getAwakeCount()
+	{
+		return m_awake.size();
+	}
+
+	public int getCount()
+	{
+		return m_characters.size();
+	}
+
+	private int collectActive(int delta)
+	{
+		if(!m_isAwakeSorted)
+		{
+			Collections.sort(m_awake, SCHEDULE_ORDER);
+			m_isAwakeSorted = true;
+
+			for(int i = 0; i < m_awake.size(); i++)
+				m_awake.get(i).setAwakeIndex(i);
+		}
+
+		if(m_active.length < m_awake.size())
+		{
+			m_active = new DefaultRpgCharacter[m_awake.size()];
+			m_deltas = new int[m_awake.size()];
+		}
+
+		int count = 0;
+
+		for(DefaultRpgCharacter c : m_awake)
+		{
+			if(c.getWorld() == null)
+				continue;
+
+			int elapsed = c.advanceLod(delta);
+
+			if(elapsed >= 0)
+			{
+				m_active[count] = c;
+				m_deltas[count] = elapsed;
+				count++;
+			}
+		}
+
+		return count;
+	}
+
+	public void update(int delta)
+	{
+		m_timerWheel.update(delta);
+		applyRemovals();
+		applyWakes();
+
+		int count = collectActive(delta);
+
+		if(count == 0)
+			return;
+
+		m_pool.invoke(new PerceptionAction(m_active, m_deltas, 0, count));
+
+		if(m_isDeterministic)
+		{
+			for(int i = 0; i < count; i++)
+				m_active[i].updateState(m_deltas[i]);
+		} else
+			updatePartitioned(count);
+
+		for(int i = 0; i < count; i++)
+			m_active[i] = null;
+
+		applyRemovals();
+		applyWakes();
+		removeDormant();
+	}
+
+	private void removeDormant()
+	{
+		int retained = 0;
+
+		for(int i = 0; i < m_awake.size(); i++)
+		{
+			DefaultRpgCharacter c = m_awake.get(i);
+
+			if(!c.isDormant())
+			{
+				c.setAwakeIndex(retained);
+				m_awake.set(retained++, c);
+			} else
+				c.setAwakeIndex(-1);
+		}
+
+		m_awake.subList(retained, m_awake.size()).clear();
+	}
+
+	private void updatePartitioned(int count)
+	{
+		for(List<Integer> partition : m_partitions.values())
+			partition.clear();
+
+		for(int i = 0; i < count; i++)
+		{
+			World world = m_active[i].getWorld();
+			List<Integer> partition = m_partitions.get(world);
+
+			if(partition == null)
+			{
+				partition = new ArrayList<>();
+				m_partitions.put(world, partition);
+			}
+
+			partition.add(i);
+		}
+
+		List<StateAction> actions = new ArrayList<>(m_partitions.size());
+
+		for(List<Integer> partition : m_partitions.values())
+		{
+			if(!partition.isEmpty())
+				actions.add(new StateAction(m_active, m_deltas, partition));
+		}
+
+		if(actions.size() == 1)
+			actions.get(0).compute();
+		else
+			m_pool.invoke(new StateActions(actions));
+
+		for(Iterator<List<Integer>> it = m_partitions.values().iterator(); it.hasNext();)
+		{
+			if(it.next().isEmpty())
+				it.remove();
+		}
+	}
+
+	private static final class PerceptionAction extends RecursiveAction
+	{
+		private static final long serialVersionUID = 1L;
+
+		private final DefaultRpgCharacter[] m_characters;
+		private final int[] m_deltas;
+		private final int m_start;
+		private final int m_end;
+
+		public PerceptionAction(DefaultRpgCharacter[] characters, int[] deltas, int start, int end)
+		{
+			m_characters = characters;
+			m_deltas = deltas;
+			m_start = start;
+			m_end = end;
+		}
+
+		@Override
+		protected void compute()
+		{
+			if(m_end - m_start <= SPLIT_THRESHOLD)
+			{
+				for(int i = m_start; i < m_end; i++)
+					m_characters[i].updatePerception(m_deltas[i]);
+
+				return;
+			}
+
+			int middle = (m_start + m_end) >>> 1;
+
+			invokeAll(new PerceptionAction(m_characters, m_deltas, m_start, middle),
+						new PerceptionAction(m_characters, m_deltas, middle, m_end));
+		}
+	}
+
+	private static final class StateAction extends RecursiveAction
+	{
+		private static final long serialVersionUID = 1L;
+
+		private final DefaultRpgCharacter[] m_characters;
+		private final int[] m_deltas;
+		private final List<Integer> m_partition;
+
+		public StateAction(DefaultRpgCharacter[] characters, int[] deltas, List<Integer> partition)
+		{
+			m_characters = characters;
+			m_deltas = deltas;
+			m_partition = partition;
+		}
+
+		@Override
+		protected void compute()
+		{
+			for(int i : m_partition)
+				m_characters[i].updateState(m_deltas[i]);
+		}
+	}
+
+	private static final class StateActions extends RecursiveAction
+	{
+		private static final long serialVersionUID = 1L;
+
+		private final List<StateAction> m_actions;
+
+		public StateActions(List<StateAction> actions)
+		{
+			m_actions = actions;
+		}
+
+		@Override
+		protected void compute()
+		{
+			invokeAll(m_actions);
+		}
+	}
+}
@@ -0,0 +1,306 @@
+/*
+ * Copyright (C) 2015 Jeremy Wildsmith.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+package io.github.jevaengine.rpg.entity.character;
+
+import io.github.jevaengine.math.Vector2F;
+import io.github.jevaengine.math.Vector3F;
+import io.github.jevaengine.rpg.AttributeSet;
+import io.github.jevaengine.rpg.entity.EntitySpatialIndex;
+import io.github.jevaengine.rpg.entity.EntitySpatialIndex.ICellObserver;
+import io.github.jevaengine.rpg.entity.LineOfSightService;
+import io.github.jevaengine.util.Nullable;
+import io.github.jevaengine.world.World;
+import io.github.jevaengine.world.entity.IEntity;
+import io.github.jevaengine.world.entity.IEntity.IEntityWorldObserver;
+import io.github.jevaengine.world.scene.model.IActionSceneModel;
+
+import java.util.Arrays;
+
+/**
+ * Creates vision resolvers which see the entities of an {@link EntitySpatialIndex} within a view
+ * distance and field of view of their host, and optionally in its line of sight. Hosts are added to
+ * the index while they are in a world.
+ *
+ * Each resolver caches the entities of the cells in view, collecting them again only when its
+ * host has moved into another cell or an entity has entered or left one of those cells. The cached
+ * candidates are filtered by distance, view cone and line of sight every update.
+ *
+ * A resolver is idle while there are no entities in the cells in view. It watches those cells, and
+ * wakes its host should an entity enter one of them.
+ *
+ * @author Jeremy
+ */
+public final class SpatialVisionResolverFactory implements IVisionResolverFactory
+{
+	private final EntitySpatialIndex m_index;
+	private final float m_viewDistance;
+	private final float m_fieldOfView;
+
+	@Nullable
+	private final LineOfSightService m_lineOfSight;
+
+	/**
+	 * @param fieldOfView The angle, in radians, of the host's view cone. Angles of 2 PI or greater see all around.
+	 * @param lineOfSight The service which resolves occlusion, or null if walls do not block sight.
+	 */
+	public SpatialVisionResolverFactory(EntitySpatialIndex index, float viewDistance, float fieldOfView, @Nullable LineOfSightService lineOfSight)
+	{
+		m_index = index;
+		m_viewDistance = viewDistance;
+		m_fieldOfView = fieldOfView;
+		m_lineOfSight = lineOfSight;
+	}
+
+	public SpatialVisionResolverFactory(EntitySpatialIndex index, float viewDistance, float fieldOfView)
+	{
+		this(index, viewDistance, fieldOfView, null);
+	}
+
+	@Override
+	public IVisionResolver create(IRpgCharacter host, AttributeSet attributes, IActionSceneModel model)
+	{
+		return new SpatialVisionResolver(host, m_index, m_lineOfSight, m_viewDistance, m_fieldOfView);
+	}
+
+	private static final class SpatialVisionResolver implements IVisionResolver, IEntityWorldObserver, ICellObserver
+	{
+		private static final IEntity[] NONE = new IEntity[0];
+
+		private final IRpgCharacter m_host;
+		private final EntitySpatialIndex m_index;
+
+		@Nullable
+		private final LineOfSightService m_lineOfSight;
+
+		private final float m_viewDistance;
+		private final boolean m_isOmnidirectional;
+		private final float m_minimumCosine;
+
+		private IEntity[] m_visible = NONE;
+		private IEntity[] m_buffer = new IEntity[16];
+
+		private IEntity[] m_candidates = new IEntity[16];
+		private int m_candidateCount = 0;
+
+		private World m_world = null;
+		private int m_cellX;
+		private int m_cellY;
+		private int[] m_versions = new int[0];
+
+		@Nullable
+		private World m_watchedWorld = null;
+		private int m_watchedX;
+		private int m_watchedY;
+		private int m_watchedRange;
+
+		public SpatialVisionResolver(IRpgCharacter host, EntitySpatialIndex index, @Nullable LineOfSightService lineOfSight, float viewDistance, float fieldOfView)
+		{
+			m_host = host;
+			m_index = index;
+			m_lineOfSight = lineOfSight;
+			m_viewDistance = viewDistance;
+			m_isOmnidirectional = fieldOfView >= Math.PI * 2;
+			m_minimumCosine = (float)Math.cos(fieldOfView / 2);
+
+			m_host.getObservers().add(this);
+
+			if(m_host.getWorld() != null)
+				m_index.add(m_host);
+		}
+
+		/**
+		 * The returned array must not be modified, and is reused by later updates when the number of visible entities is unchanged.
+		 */
+		@Override
+		public IEntity[] getVisibleEntities()
+		{
+			return m_visible;
+		}
+
+		private void watch(@Nullable World world, int cellX, int cellY, int range)
+		{
+			if(world == m_watchedWorld && cellX == m_watchedX && cellY == m_watchedY && range == m_watchedRange)
+				return;
+
+			if(m_watchedWorld != null)
+				m_index.unwatch(m_watchedWorld, m_watchedX, m_watchedY, m_watchedRange, this);
+
+			if(world != null)
+				m_index.watch(world, cellX, cellY, range, this);
+
+			m_watchedWorld = world;
+			m_watchedX = cellX;
+			m_watchedY = cellY;
+			m_watchedRange = range;
+		}
+
+		@Override
+		public void cellChanged()
+		{
+			m_host.wake();
+		}
+
+		private boolean isCandidatesCurrent(World world, int cellX, int cellY, int range)
+		{
+			if(world != m_world || cellX != m_cellX || cellY != m_cellY)
+				return false;
+
+			int i = 0;
+
+			for(int y = cellY - range; y <= cellY + range; y++)
+			{
+				for(int x = cellX - range; x <= cellX + range; x++)
+				{
+					if(m_versions[i++] != m_index.getVersion(world, x, y))
+						return false;
+				}
+			}
+
+			return true;
+		}
+
+		private void collectCandidates(World world, int cellX, int cellY, int range)
+		{
+			int side = range * 2 + 1;
+
+			if(m_versions.length != side * side)
+				m_versions = new int[side * side];
+
+			Arrays.fill(m_candidates, 0, m_candidateCount, null);
+			m_candidateCount = 0;
+
+			int i = 0;
+
+			for(int y = cellY - range; y <= cellY + range; y++)
+			{
+				for(int x = cellX - range; x <= cellX + range; x++)
+				{
+					m_versions[i++] = m_index.getVersion(world, x, y);
+
+					for(IEntity e : m_index.getEntities(world, x, y))
+					{
+						if(e == m_host)
+							continue;
+
+						if(m_candidateCount == m_candidates.length)
+							m_candidates = Arrays.copyOf(m_candidates, m_candidateCount * 2);
+
+						m_candidates[m_candidateCount++] = e;
+					}
+				}
+			}
+
+			m_world = world;
+			m_cellX = cellX;
+			m_cellY = cellY;
+		}
+
+		@Override
+		public void update(int deltaTime)
+		{
+			World world = m_host.getWorld();
+
+			if(world == null)
+			{
+				watch(null, 0, 0, 0);
+				m_world = null;
+				m_visible = NONE;
+				Arrays.fill(m_candidates, 0, m_candidateCount, null);
+				m_candidateCount = 0;
+				return;
+			}
+
+			Vector3F location = m_host.getBody().getLocation();
+			int cellX = m_index.toCell(location.x);
+			int cellY = m_index.toCell(location.y);
+			int range = (int)Math.ceil(m_viewDistance / m_index.getCellSize());
+
+			watch(world, cellX, cellY, range);
+
+			if(!isCandidatesCurrent(world, cellX, cellY, range))
+				collectCandidates(world, cellX, cellY, range);
+
+			if(m_buffer.length < m_candidateCount)
+				m_buffer = new IEntity[m_candidates.length];
+
+			Vector2F facing = m_host.getBody().getDirection().getDirectionVector();
+			float facingLength = (float)Math.sqrt(facing.x * facing.x + facing.y * facing.y);
+			boolean isOmnidirectional = m_isOmnidirectional || facingLength == 0;
+
+			float distanceSquared = m_viewDistance * m_viewDistance;
+			int count = 0;
+
+			//Entities move within their cells, so the candidates are filtered by distance and view cone every update.
+			for(int i = 0; i < m_candidateCount; i++)
+			{
+				IEntity e = m_candidates[i];
+				Vector3F other = e.getBody().getLocation();
+				float dx = other.x - location.x;
+				float dy = other.y - location.y;
+				float d = dx * dx + dy * dy;
+
+				if(d > distanceSquared)
+					continue;
+
+				if(!isOmnidirectional && d > 0 && (dx * facing.x + dy * facing.y) / (facingLength * (float)Math.sqrt(d)) < m_minimumCosine)
+					continue;
+
+				m_buffer[count++] = e;
+			}
+
+			if(m_lineOfSight != null)
+				count = m_lineOfSight.filter(world, location, m_buffer, count);
+
+			if(count == m_visible.length && count > 0)
+				System.arraycopy(m_buffer, 0, m_visible, 0, count);
+			else
+				m_visible = count == 0 ? NONE : Arrays.copyOf(m_buffer, count);
+
+			Arrays.fill(m_buffer, 0, count, null);
+		}
+
+		@Override
+		public void enterWorld()
+		{
+			m_index.add(m_host);
+		}
+
+		@Override
+		public void leaveWorld()
+		{
+			watch(null, 0, 0, 0);
+		}
+
+		@Override
+		public IActionSceneModel decorate(IActionSceneModel subject)
+		{
+			return subject;
+		}
+
+		/**
+		 * Entities may move in and out of view within the cells in view, so the resolver is only idle
+		 * while those cells are empty.
+		 */
+		@Override
+		public boolean isIdle()
+		{
+			return m_candidateCount == 0;
+		}
+	}
+}
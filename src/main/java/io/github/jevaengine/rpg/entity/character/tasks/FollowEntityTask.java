@@ -19,6 +19,11 @@
 package io.github.jevaengine.rpg.entity.character.tasks;
 
 import io.github.jevaengine.math.Vector2F;
+import io.github.jevaengine.rpg.pathfinding.FlowField;
+import io.github.jevaengine.rpg.pathfinding.FlowFieldBehavior;
+import io.github.jevaengine.rpg.pathfinding.RouteChainBehavior;
+import io.github.jevaengine.rpg.pathfinding.RouteService;
+import io.github.jevaengine.util.Nullable;
 import io.github.jevaengine.world.entity.IEntity;
 import io.github.jevaengine.world.entity.IEntity.NullEntity;
 import io.github.jevaengine.world.entity.tasks.ITask;
@@ -26,19 +31,25 @@ import io.github.jevaengine.world.pathfinding.IRouteFactory;
 import io.github.jevaengine.world.pathfinding.IRoutingRules;
 import io.github.jevaengine.world.pathfinding.IncompleteRouteException;
 import io.github.jevaengine.world.pathfinding.Route;
+import io.github.jevaengine.world.steering.ISteeringBehavior;
+import io.github.jevaengine.world.steering.TraverseRouteBehavior;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.lang.ref.WeakReference;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 
 public final class FollowEntityTask implements ITask
 {
 	private static final float REFRESH_ROUTE_INTERVAL = 1000;
+	private static final float MAX_REPAIR_DISTANCE = 4.0F;
+	private static final int MAX_REPAIRS = 8;
 	
 	private final Logger m_logger = LoggerFactory.getLogger(MovementTask.class);
 	
 	private final TraverseRouteTask m_traverseRouteTask;
-	private final IRouteFactory m_routeFactory;
+	private final RouteService m_routeService;
 	private final IRoutingRules m_routingRules;
 	
 	private final WeakReference<IEntity> m_target;
@@ -49,18 +60,36 @@ public final class FollowEntityTask implements ITask
 	
 	private int m_timeSinceRefresh = 0;
 	
-	public FollowEntityTask(IRouteFactory routeFactory, IRoutingRules routingRules, IEntity target)
+	private float m_pendingArrivalTolorance = 0;
+	
+	@Nullable
+	private FlowField m_flowField = null;
+	
+	@Nullable
+	private Future<FlowField> m_pendingFlowField = null;
+	
+	@Nullable
+	private RouteChainBehavior m_routeChain = null;
+	private int m_repairCount = 0;
+	
+	public FollowEntityTask(RouteService routeService, IRoutingRules routingRules, IEntity target)
 	{
 		m_traverseRouteTask = new TraverseRouteTask();
-		m_routeFactory = routeFactory;
+		m_routeService = routeService;
 		m_routingRules = routingRules;
 		m_target = new WeakReference<>(target);
 	}
 	
+	public FollowEntityTask(IRouteFactory routeFactory, IRoutingRules routingRules, IEntity target)
+	{
+		this(new RouteService(routeFactory, 0), routingRules, target);
+	}
+	
 	@Override
 	public void begin(IEntity entity)
 	{	
 		m_host = entity;
+		m_traverseRouteTask.awaitRoute();
 		m_traverseRouteTask.begin(entity);
 		refreshRoute();
 	}
@@ -68,48 +97,165 @@ public final class FollowEntityTask implements ITask
 	@Override
 	public void end()
 	{
+		discardPendingRoute();
 		m_traverseRouteTask.end();
 	}
 
 	@Override
 	public void cancel()
 	{
+		discardPendingRoute();
 		m_traverseRouteTask.cancel();
 	}
+	
+	private void discardPendingRoute()
+	{
+		//Flow fields are shared with other characters, so a pending field is dropped rather than cancelled.
+		m_pendingFlowField = null;
+	}
 
+	/**
+	 * Plans a new route to the target's current location.
+	 * 
+	 * If the route service provides flow fields in the host's world, the host instead steers by the
+	 * flow field towards the target's cell, which is shared with every other character following the
+	 * same target. The host continues along its previous field while the new field is computed.
+	 */
 	public void refreshRoute()
 	{
-		Route route = new Route(m_routingRules);
+		discardPendingRoute();
 		
-		float arrivalTolorance = Float.MAX_VALUE;
+		IEntity target = m_target.get();
 		
-		if(m_target.get() != null)
+		if(target == null)
 		{
-			arrivalTolorance = m_host.getBody().getBoundingCircle().radius;
+			m_routeChain = null;
+			m_traverseRouteTask.setRoute(new Route(m_routingRules), Float.MAX_VALUE);
+			return;
+		}
+		
+		m_pendingArrivalTolorance = m_host.getBody().getBoundingCircle().radius;
+		m_lastTargetLocation = target.getBody().getLocation().getXy();
+		m_pendingFlowField = m_routeService.requestFlowField(m_host.getWorld(), m_lastTargetLocation);
+		
+		if(m_pendingFlowField != null)
+		{
+			m_routeChain = null;
+			pollFlowField();
 			
-			try
-			{
-				m_lastTargetLocation = m_target.get().getBody().getLocation().getXy();
-				route = m_routeFactory.create(m_routingRules, m_host.getWorld(), m_host.getBody().getLocation().getXy(), m_lastTargetLocation, arrivalTolorance);
-			} catch (IncompleteRouteException e) {
-				m_logger.error(String.format("Unable to constuct path to %s for entity %s.", m_target.get().getInstanceName(), m_host.getInstanceName()));
-			}
+			//Keep the task from completing at the previous field's goal while the new field is computed.
+			if(m_pendingFlowField != null)
+				m_traverseRouteTask.awaitRouteExtension();
+			
+			return;
+		}
+		
+		m_flowField = null;
+		
+		Route route = new Route(m_routingRules);
+		
+		try
+		{
+			route = m_routeService.create(m_routingRules, m_host.getWorld(), m_host.getBody().getLocation().getXy(), m_lastTargetLocation, m_pendingArrivalTolorance);
+		} catch (IncompleteRouteException e) {
+			m_logger.error(String.format("Unable to constuct path to %s for entity %s.", target.getInstanceName(), m_host.getInstanceName()));
+		}
+		
+		m_routeChain = new RouteChainBehavior(new TraverseRouteBehavior(m_host.getBody(), 1.0F, route, m_pendingArrivalTolorance), m_lastTargetLocation);
+		m_repairCount = 0;
+		m_traverseRouteTask.setBehavior(m_routeChain);
+	}
+	
+	/**
+	 * Splices a leg towards the target's current location into the current route, starting at the
+	 * route's remaining waypoint (or the host's location) nearest to the target. The route beyond that
+	 * waypoint is dropped, so the host does not walk to where the target used to be, and the cost of
+	 * following a target scales with how far it moved rather than with the length of the whole route.
+	 * A new route is planned instead when there is no route to extend, the target moved too far, the
+	 * route has been extended too often or the leg cannot be completed.
+	 */
+	private void repairRoute(Vector2F targetLocation)
+	{
+		if(m_routeChain == null || m_repairCount >= MAX_REPAIRS)
+		{
+			refreshRoute();
+			return;
+		}
+		
+		Vector2F hostLocation = m_host.getBody().getLocation().getXy();
+		ISteeringBehavior waypoint = m_routeChain.findNearestWaypoint(targetLocation, hostLocation);
+		Vector2F legStart = waypoint == null ? hostLocation : m_routeChain.getWaypoint(waypoint);
+		
+		if(legStart.difference(targetLocation).getLength() > MAX_REPAIR_DISTANCE)
+		{
+			refreshRoute();
+			return;
 		}
 		
-		m_traverseRouteTask.setRoute(route, arrivalTolorance);
+		Route route;
+		
+		try
+		{
+			route = m_routeService.create(m_routingRules, m_host.getWorld(), legStart, targetLocation, m_pendingArrivalTolorance);
+		} catch (IncompleteRouteException e) {
+			refreshRoute();
+			return;
+		}
+		
+		m_lastTargetLocation = targetLocation;
+		m_routeChain.splice(waypoint, new TraverseRouteBehavior(m_host.getBody(), 1.0F, route, m_pendingArrivalTolorance), targetLocation);
+		m_repairCount++;
+		m_traverseRouteTask.setBehavior(m_routeChain);
+	}
+	
+	private void pollFlowField()
+	{
+		if(m_pendingFlowField == null || !m_pendingFlowField.isDone())
+			return;
+		
+		Future<FlowField> pending = m_pendingFlowField;
+		m_pendingFlowField = null;
+		
+		try
+		{
+			m_flowField = pending.get();
+			m_traverseRouteTask.setBehavior(new FlowFieldBehavior(m_host.getBody(), m_flowField, m_lastTargetLocation, m_pendingArrivalTolorance));
+		} catch (ExecutionException e) {
+			m_logger.error(String.format("Error constructing flow field for entity %s.", m_host.getInstanceName()), e.getCause());
+			m_flowField = null;
+			m_traverseRouteTask.setRoute(new Route(m_routingRules), m_pendingArrivalTolorance);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
 	}
 	
 	@Override
 	public boolean doCycle(int deltaTime)
 	{
 		if(m_target.get() == null)
+		{
+			discardPendingRoute();
 			return true;
+		}
+		
+		pollFlowField();
+		
+		Vector2F targetLocation = m_target.get().getBody().getLocation().getXy();
+		boolean isFlowFieldFollowed = m_flowField != null || m_pendingFlowField != null;
+		
+		//Flow fields are shared and cached per cell, so follow the target as soon as it crosses into another cell.
+		if(isFlowFieldFollowed && ((int)Math.floor(m_lastTargetLocation.x) != (int)Math.floor(targetLocation.x) ||
+									(int)Math.floor(m_lastTargetLocation.y) != (int)Math.floor(targetLocation.y)))
+		{
+			m_timeSinceRefresh = 0;
+			refreshRoute();
+		}
 	
 		m_timeSinceRefresh += deltaTime;
-		if(m_timeSinceRefresh > REFRESH_ROUTE_INTERVAL && !m_lastTargetLocation.difference(m_target.get().getBody().getLocation().getXy()).isZero())
+		if(m_timeSinceRefresh > REFRESH_ROUTE_INTERVAL && !m_lastTargetLocation.difference(targetLocation).isZero())
 		{
 			m_timeSinceRefresh = 0;
-			refreshRoute();
+			repairRoute(targetLocation);
 		}
 			
 		return m_traverseRouteTask.doCycle(deltaTime);
@@ -19,7 +19,14 @@
 package io.github.jevaengine.rpg.entity.character.tasks;
 
 import io.github.jevaengine.math.Vector2F;
+import io.github.jevaengine.rpg.pathfinding.ClusterGraph;
+import io.github.jevaengine.rpg.pathfinding.GridSearch;
+import io.github.jevaengine.rpg.pathfinding.HierarchicalPathBehavior;
+import io.github.jevaengine.rpg.pathfinding.RouteService;
+import io.github.jevaengine.rpg.pathfinding.WaypointBehavior;
+import io.github.jevaengine.util.Nullable;
 import io.github.jevaengine.world.entity.IEntity;
+import io.github.jevaengine.world.entity.IEntity.NullEntity;
 import io.github.jevaengine.world.entity.tasks.ITask;
 import io.github.jevaengine.world.pathfinding.IRouteFactory;
 import io.github.jevaengine.world.pathfinding.IRoutingRules;
@@ -33,7 +40,7 @@ public final class MovementTask implements ITask
 	private final Logger m_logger = LoggerFactory.getLogger(MovementTask.class);
 	
 	private final TraverseRouteTask m_traverseRouteTask;
-	private final IRouteFactory m_routeFactory;
+	private final RouteService m_routeService;
 	private final IRoutingRules m_routingRules;
 	
 	private final Vector2F m_destination;
@@ -41,50 +48,139 @@ public final class MovementTask implements ITask
 	private final float m_arrivalTolorance;
 	
 	private final int m_maxSteps;
+	private final int m_priority;
 	
-	public MovementTask(IRouteFactory routeFactory, IRoutingRules routingRules, Vector2F destination, float arrivalTolorance, int maxSteps)
+	@Nullable
+	private GridSearch m_pendingSearch = null;
+	
+	@Nullable
+	private HierarchicalPathBehavior m_hierarchicalPath = null;
+	
+	private IEntity m_host = new NullEntity();
+	
+	/**
+	 * @param priority The priority of the route search where searches are budgeted, lower values being served first.
+	 */
+	public MovementTask(RouteService routeService, IRoutingRules routingRules, Vector2F destination, float arrivalTolorance, int maxSteps, int priority)
 	{
 		m_traverseRouteTask = new TraverseRouteTask();
-		m_routeFactory = routeFactory;
+		m_routeService = routeService;
 		m_routingRules = routingRules;
 		m_destination = new Vector2F(destination);
 		m_arrivalTolorance = arrivalTolorance;
 		m_maxSteps = maxSteps;
+		m_priority = priority;
+	}
+	
+	public MovementTask(RouteService routeService, IRoutingRules routingRules, Vector2F destination, float arrivalTolorance, int maxSteps)
+	{
+		this(routeService, routingRules, destination, arrivalTolorance, maxSteps, 0);
+	}
+	
+	public MovementTask(IRouteFactory routeFactory, IRoutingRules routingRules, Vector2F destination, float arrivalTolorance, int maxSteps)
+	{
+		this(new RouteService(routeFactory, 0), routingRules, destination, arrivalTolorance, maxSteps);
 	}
 	
 	@Override
 	public void begin(IEntity entity)
 	{
+		m_host = entity;
+		m_traverseRouteTask.awaitRoute();
+		m_traverseRouteTask.begin(entity);
+		
+		Vector2F start = entity.getBody().getLocation().getXy();
+		ClusterGraph graph = m_routeService.getClusterGraph(entity.getWorld());
+		
+		if(graph != null)
+		{
+			Vector2F[] path = graph.findPath(start, m_destination);
+			
+			if(path == null)
+			{
+				m_logger.error(String.format("Unable to constuct path to %f, %f for entity %s.", m_destination.x, m_destination.y, entity.getInstanceName()));
+				m_traverseRouteTask.setRoute(new Route(m_routingRules), m_arrivalTolorance);
+			} else
+			{
+				m_hierarchicalPath = new HierarchicalPathBehavior(entity.getBody(), graph, path, m_arrivalTolorance, m_maxSteps,
+																	m_routeService.getSearchScheduler(), m_priority);
+				m_traverseRouteTask.setBehavior(m_hierarchicalPath);
+			}
+			
+			return;
+		}
+		
+		m_pendingSearch = m_routeService.search(entity.getWorld(), start, m_destination, m_maxSteps, m_priority);
+		
+		if(m_pendingSearch != null)
+		{
+			pollSearch();
+			return;
+		}
+		
 		Route route = new Route(m_routingRules);
 		
 		try
 		{
-			route = m_routeFactory.create(m_routingRules, entity.getWorld(), entity.getBody().getLocation().getXy(), m_destination, m_arrivalTolorance);
+			route = m_routeService.create(m_routingRules, entity.getWorld(), start, m_destination, m_arrivalTolorance);
 			route.truncate(m_maxSteps);
 		} catch (IncompleteRouteException e) {
 			m_logger.error(String.format("Unable to constuct path to %f, %f for entity %s.", m_destination.x, m_destination.y, entity.getInstanceName()));
 		}
 		
 		m_traverseRouteTask.setRoute(route, m_arrivalTolorance);
+	}
+	
+	private void pollSearch()
+	{
+		if(m_pendingSearch == null || !m_pendingSearch.isDone())
+			return;
 		
-		m_traverseRouteTask.begin(entity);
+		Vector2F[] waypoints = m_pendingSearch.getWaypoints();
+		m_pendingSearch = null;
+		
+		if(waypoints == null)
+		{
+			m_logger.error(String.format("Unable to constuct path to %f, %f for entity %s.", m_destination.x, m_destination.y, m_host.getInstanceName()));
+			m_traverseRouteTask.setRoute(new Route(m_routingRules), m_arrivalTolorance);
+		} else
+			m_traverseRouteTask.setBehavior(new WaypointBehavior(m_host.getBody(), waypoints, m_arrivalTolorance));
+	}
+	
+	private void discardPendingRoute()
+	{
+		if(m_pendingSearch != null)
+		{
+			m_pendingSearch.cancel();
+			m_pendingSearch = null;
+		}
+		
+		if(m_hierarchicalPath != null)
+		{
+			m_hierarchicalPath.cancel();
+			m_hierarchicalPath = null;
+		}
 	}
 
 	@Override
 	public void end()
 	{
+		discardPendingRoute();
 		m_traverseRouteTask.end();
 	}
 
 	@Override
 	public void cancel()
 	{
+		discardPendingRoute();
 		m_traverseRouteTask.cancel();
 	}
 
 	@Override
 	public boolean doCycle(int deltaTime)
 	{
+		pollSearch();
+		
 		return m_traverseRouteTask.doCycle(deltaTime);
 	}
 
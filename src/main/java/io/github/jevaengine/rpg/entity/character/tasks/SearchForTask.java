@@ -24,6 +24,15 @@ import io.github.jevaengine.world.entity.IEntity;
 import io.github.jevaengine.world.entity.tasks.ITask;
 import io.github.jevaengine.world.entity.tasks.InvalidTaskHostException;
 
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Reports entities of the sought class as they come into the searcher's view, and again as they
+ * leave it. An entity which remains visible is reported only once.
+ */
 public final class SearchForTask<T extends IEntity> implements ITask
 {
 	@Nullable
@@ -33,6 +42,11 @@ public final class SearchForTask<T extends IEntity> implements ITask
 	private ISearchListener<T> m_listener;
 
 	private boolean m_isQueryCancel;
+	
+	private Set<IEntity> m_visible = new HashSet<>();
+	private Set<IEntity> m_lastVisible = new HashSet<>();
+	
+	private final Map<Class<?>, Boolean> m_classMatches = new HashMap<>();
 
 	public SearchForTask(Class<T> seekingClass, ISearchListener<T> listener)
 	{
@@ -56,12 +70,39 @@ public final class SearchForTask<T extends IEntity> implements ITask
 
 		for (IEntity e : m_searcher.getVisionResolver().getVisibleEntities())
 		{
-			if (m_seekingClass.isAssignableFrom(e.getClass()))
+			if (!isSought(e))
+				continue;
+			
+			m_visible.add(e);
+			
+			if (!m_lastVisible.remove(e))
 				m_listener.found((T)e);
 		}
+		
+		//Whatever remains of the last cycle's entities is no longer visible.
+		for (IEntity e : m_lastVisible)
+			m_listener.lost((T)e);
+		
+		Set<IEntity> lastVisible = m_lastVisible;
+		m_lastVisible = m_visible;
+		m_visible = lastVisible;
+		m_visible.clear();
 
 		return false;
 	}
+	
+	private boolean isSought(IEntity e)
+	{
+		Boolean isMatch = m_classMatches.get(e.getClass());
+		
+		if (isMatch == null)
+		{
+			isMatch = m_seekingClass.isAssignableFrom(e.getClass());
+			m_classMatches.put(e.getClass(), isMatch);
+		}
+		
+		return isMatch;
+	}
 
 	@Override
 	public final boolean isParallel()
@@ -77,13 +118,21 @@ public final class SearchForTask<T extends IEntity> implements ITask
 		
 		m_isQueryCancel = false;
 		m_searcher = (IRpgCharacter)entity;
+		m_visible.clear();
+		m_lastVisible.clear();
 	}
 
 	@Override
-	public final void end() { }
+	public final void end()
+	{
+		m_visible.clear();
+		m_lastVisible.clear();
+	}
 
 	public interface ISearchListener<Y extends IEntity>
 	{
 		void found(Y entity);
+		
+		default void lost(Y entity) { }
 	}
 }
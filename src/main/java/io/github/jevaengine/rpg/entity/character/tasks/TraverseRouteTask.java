@@ -22,6 +22,7 @@ import io.github.jevaengine.rpg.entity.character.IMovementResolver;
 import io.github.jevaengine.rpg.entity.character.IMovementResolver.IMovementDirector;
 import io.github.jevaengine.rpg.entity.character.IMovementResolver.NullMovementResolver;
 import io.github.jevaengine.rpg.entity.character.IRpgCharacter;
+import io.github.jevaengine.rpg.pathfinding.IPendingSteeringBehavior;
 import io.github.jevaengine.world.entity.IEntity;
 import io.github.jevaengine.world.entity.IEntity.NullEntity;
 import io.github.jevaengine.world.entity.tasks.ITask;
@@ -36,15 +37,47 @@ public final class TraverseRouteTask implements ITask
 {
 	private IMovementResolver m_movementResolver = new NullMovementResolver();
 	private ISteeringBehavior m_steeringBehavior = new NullSteeringBehavior();
+	private ISteeringBehavior m_behavior = m_steeringBehavior;
 	private final IMovementDirector m_movementDirector = new MovementDirector();
 	private IEntity m_subject = new NullEntity();
 	
 	private boolean m_isCancel = false;
+	private boolean m_isAwaitingRoute = false;
+	
+	/**
+	 * Halts the subject, without completing the task, until a route is provided via setRoute.
+	 */
+	public void awaitRoute()
+	{
+		m_isAwaitingRoute = true;
+		m_steeringBehavior = new NullSteeringBehavior();
+		m_behavior = m_steeringBehavior;
+	}
+	
+	/**
+	 * Keeps the task from completing, while the subject continues along its current route, until a
+	 * behavior extending the route is provided via setBehavior.
+	 */
+	public void awaitRouteExtension()
+	{
+		m_isAwaitingRoute = true;
+	}
 	
 	public void setRoute(Route route, float arrivalTolorance)
 	{
+		setBehavior(new TraverseRouteBehavior(m_subject.getBody(), 1.0F, route, arrivalTolorance));
+	}
+	
+	/**
+	 * Steers the subject by the given behavior in place of a route. The task completes once the behavior
+	 * directs a zero vector, unless it is an {@link IPendingSteeringBehavior} which is pending.
+	 */
+	public void setBehavior(ISteeringBehavior behavior)
+	{
+		m_isAwaitingRoute = false;
+		m_behavior = behavior;
 		m_steeringBehavior = new SteeringBehaviorList(new ISteeringBehavior[] {
-				new TraverseRouteBehavior(m_subject.getBody(), 1.0F, route, arrivalTolorance)
+				behavior
 			});
 	}
 	
@@ -92,7 +125,13 @@ public final class TraverseRouteTask implements ITask
 		@Override
 		public boolean isDone()
 		{
-			return m_isCancel || m_steeringBehavior.direct().isZero();
+			if(m_isCancel)
+				return true;
+			
+			if(m_isAwaitingRoute || !m_steeringBehavior.direct().isZero())
+				return false;
+			
+			return !(m_behavior instanceof IPendingSteeringBehavior) || !((IPendingSteeringBehavior)m_behavior).isPending();
 		}
 		
 	}
@@ -18,47 +18,98 @@
  */
 package io.github.jevaengine.rpg.entity.character.tasks;
 
+import io.github.jevaengine.math.Vector2F;
+import io.github.jevaengine.rpg.pathfinding.ClusterGraph;
+import io.github.jevaengine.rpg.pathfinding.HierarchicalPathBehavior;
+import io.github.jevaengine.rpg.pathfinding.RouteService;
+import io.github.jevaengine.util.Nullable;
 import io.github.jevaengine.world.entity.IEntity;
 import io.github.jevaengine.world.entity.tasks.ITask;
 import io.github.jevaengine.world.pathfinding.IRouteFactory;
 import io.github.jevaengine.world.pathfinding.IRoutingRules;
 import io.github.jevaengine.world.pathfinding.Route;
 
+import java.util.Random;
+
 public final class WonderTask implements ITask
 {
 	private static final float TRAVERSE_TOLORANCE = 0.8F;
 	private final TraverseRouteTask m_traverseRouteTask;
-	private final IRouteFactory m_routeFactory;
+	private final RouteService m_routeService;
 	private final IRoutingRules m_routingRules;
 	
 	private final int m_wonderRadius;
 	
-	public WonderTask(IRouteFactory routeFactory, IRoutingRules routingRules, int wonderRadius)
+	private final Random m_random = new Random();
+	
+	@Nullable
+	private HierarchicalPathBehavior m_hierarchicalPath = null;
+	
+	public WonderTask(RouteService routeService, IRoutingRules routingRules, int wonderRadius)
 	{
 		m_traverseRouteTask = new TraverseRouteTask();
-		m_routeFactory = routeFactory;
+		m_routeService = routeService;
 		m_routingRules = routingRules;
 		m_wonderRadius = wonderRadius;
 	}
 	
+	public WonderTask(IRouteFactory routeFactory, IRoutingRules routingRules, int wonderRadius)
+	{
+		this(new RouteService(routeFactory, 0), routingRules, wonderRadius);
+	}
+	
 	@Override
 	public void begin(IEntity entity)
 	{
-		Route route = m_routeFactory.create(m_routingRules, entity.getWorld(), entity.getBody().getLocation().getXy(), m_wonderRadius);
+		Vector2F origin = entity.getBody().getLocation().getXy();
+		ClusterGraph graph = m_routeService.getClusterGraph(entity.getWorld());
+		
+		//Large radii are routed hierarchically, towards a random destination within the radius.
+		if(graph != null && m_wonderRadius > graph.getClusterSize())
+		{
+			Vector2F destination = graph.getRandomDestination(origin, m_wonderRadius, m_random);
+			Vector2F[] path = destination == null ? null : graph.findPath(origin, destination);
+			
+			m_traverseRouteTask.begin(entity);
+			
+			if(path == null)
+				m_traverseRouteTask.setRoute(new Route(m_routingRules), TRAVERSE_TOLORANCE);
+			else
+			{
+				m_hierarchicalPath = new HierarchicalPathBehavior(entity.getBody(), graph, path, TRAVERSE_TOLORANCE, Integer.MAX_VALUE,
+																	m_routeService.getSearchScheduler(), 0);
+				m_traverseRouteTask.setBehavior(m_hierarchicalPath);
+			}
+			
+			return;
+		}
+		
+		Route route = m_routeService.create(m_routingRules, entity.getWorld(), entity.getBody().getLocation().getXy(), m_wonderRadius);
 
 		m_traverseRouteTask.setRoute(route, TRAVERSE_TOLORANCE);
 		m_traverseRouteTask.begin(entity);
 	}
 
+	private void discardHierarchicalPath()
+	{
+		if(m_hierarchicalPath != null)
+		{
+			m_hierarchicalPath.cancel();
+			m_hierarchicalPath = null;
+		}
+	}
+
 	@Override
 	public void end()
 	{
+		discardHierarchicalPath();
 		m_traverseRouteTask.end();
 	}
 
 	@Override
 	public void cancel()
 	{
+		discardHierarchicalPath();
 		m_traverseRouteTask.cancel();
 	}
 
@@ -0,0 +1,566 @@
+/*
+ * Copyright (C) 2015 Jeremy Wildsmith.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+package io.github.jevaengine.rpg.pathfinding;
+
+import io.github.jevaengine.math.Vector2F;
+import io.github.jevaengine.util.Nullable;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Random;
+
+/**
+ * An abstract graph over a routing grid for hierarchical (HPA*) pathfinding. The grid is divided
+ * into square clusters; every contiguous opening along the border of two clusters is an entrance,
+ * represented by a pair of nodes either side of the border. Nodes of the same cluster are linked by
+ * the cost of the shortest path between them within the cluster.
+ *
+ * A path is found by searching this much smaller graph, and each leg is only refined into cells, by
+ * a search confined to the leg's clusters, when it is reached (see {@link HierarchicalPathBehavior}).
+ * When cells change (e.g. a door opens or closes), only the affected cluster and its neighbours are
+ * rebuilt via {@link #update(int, int)}.
+ *
+ * @author Jeremy
+ */
+public final class ClusterGraph
+{
+	private static final int STRAIGHT_COST = 10;
+	private static final int DIAGONAL_COST = 14;
+
+	private static final int[] STEP_X = {1, 0, -1, 0, 1, -1, -1, 1};
+	private static final int[] STEP_Y = {0, 1, 0, -1, 1, 1, -1, -1};
+
+	private static final int DESTINATION_SAMPLES = 16;
+
+	private final IRoutingGrid m_grid;
+	private final int m_width;
+	private final int m_height;
+	private final int m_clusterSize;
+	private final int m_clustersX;
+	private final int m_clustersY;
+
+	private final Cluster[] m_clusters;
+	private final Map<Integer, Node> m_nodes = new HashMap<>();
+
+	//Entrance nodes of each border; borders [0, clustersX * clustersY) lie east of their cluster, the remainder south.
+	private final List<List<Node>> m_borders = new ArrayList<>();
+
+	private final Node m_goalSentinel = new Node(-1, -1);
+
+	public ClusterGraph(IRoutingGrid grid, int clusterSize)
+	{
+		m_grid = grid;
+		m_width = grid.getWidth();
+		m_height = grid.getHeight();
+		m_clusterSize = clusterSize;
+		m_clustersX = (m_width + clusterSize - 1) / clusterSize;
+		m_clustersY = (m_height + clusterSize - 1) / clusterSize;
+
+		m_clusters = new Cluster[m_clustersX * m_clustersY];
+
+		for(int i = 0; i < m_clusters.length; i++)
+			m_clusters[i] = new Cluster(i);
+
+		for(int i = 0; i < m_clusters.length * 2; i++)
+			m_borders.add(new ArrayList<Node>());
+
+		for(int i = 0; i < m_clusters.length; i++)
+		{
+			buildBorder(i);
+			buildBorder(m_clusters.length + i);
+		}
+
+		for(Cluster c : m_clusters)
+			c.linkNodes();
+	}
+
+	public IRoutingGrid getGrid()
+	{
+		return m_grid;
+	}
+
+	public int getClusterSize()
+	{
+		return m_clusterSize;
+	}
+
+	public synchronized int getNodeCount()
+	{
+		return m_nodes.size();
+	}
+
+	private boolean isTraversable(int x, int y)
+	{
+		return x >= 0 && y >= 0 && x < m_width && y < m_height && m_grid.isTraversable(x, y);
+	}
+
+	private int getClusterIndex(int x, int y)
+	{
+		return (y / m_clusterSize) * m_clustersX + (x / m_clusterSize);
+	}
+
+	private Node acquireNode(int x, int y)
+	{
+		int cell = y * m_width + x;
+		Node node = m_nodes.get(cell);
+
+		if(node == null)
+		{
+			node = new Node(cell, getClusterIndex(x, y));
+			m_nodes.put(cell, node);
+			m_clusters[node.m_cluster].m_clusterNodes.add(node);
+		}
+
+		node.m_references++;
+
+		return node;
+	}
+
+	private void releaseNode(Node node)
+	{
+		if(--node.m_references > 0)
+			return;
+
+		m_nodes.remove(node.m_cell);
+		m_clusters[node.m_cluster].m_clusterNodes.remove(node);
+
+		for(Node neighbour : node.m_edges.keySet())
+			neighbour.m_edges.remove(node);
+
+		node.m_edges.clear();
+	}
+
+	private static void link(Node a, Node b, int cost)
+	{
+		Integer existing = a.m_edges.get(b);
+
+		if(existing == null || cost < existing)
+		{
+			a.m_edges.put(b, cost);
+			b.m_edges.put(a, cost);
+		}
+	}
+
+	private void buildBorder(int border)
+	{
+		boolean isEast = border < m_clusters.length;
+		int cluster = isEast ? border : border - m_clusters.length;
+		int clusterX = cluster % m_clustersX;
+		int clusterY = cluster / m_clustersX;
+
+		if((isEast && clusterX + 1 >= m_clustersX) || (!isEast && clusterY + 1 >= m_clustersY))
+			return;
+
+		//The last cell before the border, along the border's direction.
+		int fixed = (isEast ? clusterX + 1 : clusterY + 1) * m_clusterSize - 1;
+		int start = (isEast ? clusterY : clusterX) * m_clusterSize;
+		int end = Math.min(start + m_clusterSize, isEast ? m_height : m_width);
+
+		List<Node> nodes = m_borders.get(border);
+		int runStart = -1;
+
+		for(int i = start; i <= end; i++)
+		{
+			boolean isOpen = i < end && (isEast ? isTraversable(fixed, i) && isTraversable(fixed + 1, i) :
+													isTraversable(i, fixed) && isTraversable(i, fixed + 1));
+
+			if(isOpen && runStart < 0)
+				runStart = i;
+			else if(!isOpen && runStart >= 0)
+			{
+				int middle = (runStart + i - 1) / 2;
+
+				Node a = isEast ? acquireNode(fixed, middle) : acquireNode(middle, fixed);
+				Node b = isEast ? acquireNode(fixed + 1, middle) : acquireNode(middle, fixed + 1);
+				link(a, b, STRAIGHT_COST);
+
+				nodes.add(a);
+				nodes.add(b);
+
+				runStart = -1;
+			}
+		}
+	}
+
+	private void clearBorder(int border)
+	{
+		List<Node> nodes = m_borders.get(border);
+
+		//Entrance nodes are stored in pairs, one either side of the border.
+		for(int i = 0; i < nodes.size(); i += 2)
+		{
+			nodes.get(i).m_edges.remove(nodes.get(i + 1));
+			nodes.get(i + 1).m_edges.remove(nodes.get(i));
+		}
+
+		for(Node n : nodes)
+			releaseNode(n);
+
+		nodes.clear();
+	}
+
+	/**
+	 * Rebuilds the cluster containing the given cell, along with the entrances it shares with its
+	 * neighbours, after the traversability of any of its cells has changed.
+	 */
+	public synchronized void update(int x, int y)
+	{
+		if(x < 0 || y < 0 || x >= m_width || y >= m_height)
+			return;
+
+		int clusterX = x / m_clusterSize;
+		int clusterY = y / m_clusterSize;
+		int cluster = getClusterIndex(x, y);
+
+		int[] borders = {
+			cluster,
+			m_clusters.length + cluster,
+			clusterX > 0 ? cluster - 1 : -1,
+			clusterY > 0 ? m_clusters.length + cluster - m_clustersX : -1
+		};
+
+		for(int border : borders)
+		{
+			if(border >= 0)
+				clearBorder(border);
+		}
+
+		for(int border : borders)
+		{
+			if(border >= 0)
+				buildBorder(border);
+		}
+
+		m_clusters[cluster].linkNodes();
+
+		if(clusterX > 0)
+			m_clusters[cluster - 1].linkNodes();
+
+		if(clusterX + 1 < m_clustersX)
+			m_clusters[cluster + 1].linkNodes();
+
+		if(clusterY > 0)
+			m_clusters[cluster - m_clustersX].linkNodes();
+
+		if(clusterY + 1 < m_clustersY)
+			m_clusters[cluster + m_clustersX].linkNodes();
+	}
+
+	/**
+	 * Finds a path at the abstract level.
+	 *
+	 * @return The entrance cells to pass through, ending at the destination, or null if the destination cannot be reached.
+	 */
+	@Nullable
+	public synchronized Vector2F[] findPath(Vector2F start, Vector2F destination)
+	{
+		int startX = (int)Math.floor(start.x);
+		int startY = (int)Math.floor(start.y);
+		int goalX = (int)Math.floor(destination.x);
+		int goalY = (int)Math.floor(destination.y);
+
+		if(!isTraversable(startX, startY) || !isTraversable(goalX, goalY))
+			return null;
+
+		int startCluster = getClusterIndex(startX, startY);
+		int goalCluster = getClusterIndex(goalX, goalY);
+
+		if(startCluster == goalCluster && m_clusters[startCluster].getCost(startX, startY, goalX, goalY) >= 0)
+			return new Vector2F[] {new Vector2F(destination)};
+
+		Map<Node, Integer> startCosts = m_clusters[startCluster].getCosts(startX, startY);
+		Map<Node, Integer> goalCosts = m_clusters[goalCluster].getCosts(goalX, goalY);
+
+		Map<Node, Integer> costs = new HashMap<>();
+		Map<Node, Node> parents = new HashMap<>();
+		PriorityQueue<OpenEntry> open = new PriorityQueue<>();
+
+		for(Map.Entry<Node, Integer> e : startCosts.entrySet())
+		{
+			costs.put(e.getKey(), e.getValue());
+			open.add(new OpenEntry(e.getKey(), e.getValue(), e.getValue() + heuristic(e.getKey().m_cell, goalX, goalY)));
+		}
+
+		while(!open.isEmpty())
+		{
+			OpenEntry entry = open.poll();
+			Node node = entry.m_node;
+
+			if(node == m_goalSentinel)
+				return buildPath(parents, destination);
+
+			if(entry.m_cost > costs.get(node))
+				continue;
+
+			Integer goalCost = goalCosts.get(node);
+
+			if(goalCost != null)
+				relax(open, costs, parents, node, m_goalSentinel, entry.m_cost + goalCost, 0);
+
+			for(Map.Entry<Node, Integer> edge : node.m_edges.entrySet())
+			{
+				Node neighbour = edge.getKey();
+				relax(open, costs, parents, node, neighbour, entry.m_cost + edge.getValue(), heuristic(neighbour.m_cell, goalX, goalY));
+			}
+		}
+
+		return null;
+	}
+
+	private static void relax(PriorityQueue<OpenEntry> open, Map<Node, Integer> costs, Map<Node, Node> parents, Node from, Node to, int cost, int heuristic)
+	{
+		Integer existing = costs.get(to);
+
+		if(existing != null && existing <= cost)
+			return;
+
+		costs.put(to, cost);
+		parents.put(to, from);
+		open.add(new OpenEntry(to, cost, cost + heuristic));
+	}
+
+	private Vector2F[] buildPath(Map<Node, Node> parents, Vector2F destination)
+	{
+		List<Vector2F> path = new ArrayList<>();
+		path.add(new Vector2F(destination));
+
+		for(Node node = parents.get(m_goalSentinel); node != null; node = parents.get(node))
+			path.add(new Vector2F(node.m_cell % m_width + 0.5F, node.m_cell / m_width + 0.5F));
+
+		Collections.reverse(path);
+
+		return path.toArray(new Vector2F[path.size()]);
+	}
+
+	private int heuristic(int cell, int goalX, int goalY)
+	{
+		int dx = Math.abs(cell % m_width - goalX);
+		int dy = Math.abs(cell / m_width - goalY);
+
+		return STRAIGHT_COST * Math.max(dx, dy) + (DIAGONAL_COST - STRAIGHT_COST) * Math.min(dx, dy);
+	}
+
+	/**
+	 * Refines a leg of an abstract path into cells, searching only the clusters containing its endpoints.
+	 *
+	 * @return The waypoints of the leg, or null if it cannot be completed within those clusters.
+	 */
+	@Nullable
+	public Vector2F[] refine(Vector2F from, Vector2F to)
+	{
+		GridSearch search = createRefinement(from, to, 0, 0);
+		search.search(Integer.MAX_VALUE);
+
+		return search.getWaypoints();
+	}
+
+	/**
+	 * Creates a search refining a leg of an abstract path, confined to the clusters containing its endpoints.
+	 */
+	GridSearch createRefinement(Vector2F from, Vector2F to, int priority, long sequence)
+	{
+		int fromX = ((int)Math.floor(from.x) / m_clusterSize) * m_clusterSize;
+		int fromY = ((int)Math.floor(from.y) / m_clusterSize) * m_clusterSize;
+		int toX = ((int)Math.floor(to.x) / m_clusterSize) * m_clusterSize;
+		int toY = ((int)Math.floor(to.y) / m_clusterSize) * m_clusterSize;
+
+		return new GridSearch(m_grid, from, to, Integer.MAX_VALUE, priority, sequence,
+								Math.min(fromX, toX), Math.min(fromY, toY),
+								Math.max(fromX, toX) + m_clusterSize, Math.max(fromY, toY) + m_clusterSize);
+	}
+
+	/**
+	 * @return The centre of a random traversable cell within the given radius of origin, or null if none was found.
+	 */
+	@Nullable
+	public Vector2F getRandomDestination(Vector2F origin, int radius, Random random)
+	{
+		for(int i = 0; i < DESTINATION_SAMPLES; i++)
+		{
+			int x = (int)Math.floor(origin.x) + random.nextInt(radius * 2 + 1) - radius;
+			int y = (int)Math.floor(origin.y) + random.nextInt(radius * 2 + 1) - radius;
+
+			if(isTraversable(x, y))
+				return new Vector2F(x + 0.5F, y + 0.5F);
+		}
+
+		return null;
+	}
+
+	private static final class Node
+	{
+		private final int m_cell;
+		private final int m_cluster;
+		private final Map<Node, Integer> m_edges = new HashMap<>();
+
+		private int m_references = 0;
+
+		public Node(int cell, int cluster)
+		{
+			m_cell = cell;
+			m_cluster = cluster;
+		}
+	}
+
+	private static final class OpenEntry implements Comparable<OpenEntry>
+	{
+		private final Node m_node;
+		private final int m_cost;
+		private final int m_estimate;
+
+		public OpenEntry(Node node, int cost, int estimate)
+		{
+			m_node = node;
+			m_cost = cost;
+			m_estimate = estimate;
+		}
+
+		@Override
+		public int compareTo(OpenEntry o)
+		{
+			return Integer.compare(m_estimate, o.m_estimate);
+		}
+	}
+
+	private final class Cluster
+	{
+		private final int m_x;
+		private final int m_y;
+		private final int m_clusterWidth;
+		private final int m_clusterHeight;
+
+		private final List<Node> m_clusterNodes = new ArrayList<>();
+
+		public Cluster(int index)
+		{
+			m_x = (index % m_clustersX) * m_clusterSize;
+			m_y = (index / m_clustersX) * m_clusterSize;
+			m_clusterWidth = Math.min(m_clusterSize, m_width - m_x);
+			m_clusterHeight = Math.min(m_clusterSize, m_height - m_y);
+		}
+
+		//Dijkstra within the cluster from the given cell; unreached cells are left at -1.
+		private int[] integrate(int originX, int originY)
+		{
+			int[] costs = new int[m_clusterWidth * m_clusterHeight];
+			Arrays.fill(costs, -1);
+
+			PriorityQueue<long[]> open = new PriorityQueue<>(16, new Comparator<long[]>() {
+				@Override
+				public int compare(long[] a, long[] b)
+				{
+					return Long.compare(a[0], b[0]);
+				}
+			});
+
+			int origin = (originY - m_y) * m_clusterWidth + (originX - m_x);
+			costs[origin] = 0;
+			open.add(new long[] {0, origin});
+
+			while(!open.isEmpty())
+			{
+				long[] entry = open.poll();
+				int cell = (int)entry[1];
+
+				if(entry[0] > costs[cell])
+					continue;
+
+				int x = cell % m_clusterWidth;
+				int y = cell / m_clusterWidth;
+
+				for(int step = 0; step < STEP_X.length; step++)
+				{
+					int nx = x + STEP_X[step];
+					int ny = y + STEP_Y[step];
+
+					if(!isLocalTraversable(nx, ny))
+						continue;
+
+					if(step >= 4 && (!isLocalTraversable(nx, y) || !isLocalTraversable(x, ny)))
+						continue;
+
+					int neighbour = ny * m_clusterWidth + nx;
+					int cost = costs[cell] + (step >= 4 ? DIAGONAL_COST : STRAIGHT_COST);
+
+					if(costs[neighbour] < 0 || cost < costs[neighbour])
+					{
+						costs[neighbour] = cost;
+						open.add(new long[] {cost, neighbour});
+					}
+				}
+			}
+
+			return costs;
+		}
+
+		private boolean isLocalTraversable(int x, int y)
+		{
+			return x >= 0 && y >= 0 && x < m_clusterWidth && y < m_clusterHeight && m_grid.isTraversable(m_x + x, m_y + y);
+		}
+
+		public int getCost(int fromX, int fromY, int toX, int toY)
+		{
+			return integrate(fromX, fromY)[(toY - m_y) * m_clusterWidth + (toX - m_x)];
+		}
+
+		public Map<Node, Integer> getCosts(int originX, int originY)
+		{
+			Map<Node, Integer> nodeCosts = new HashMap<>();
+			int[] costs = integrate(originX, originY);
+
+			for(Node n : m_clusterNodes)
+			{
+				int cost = costs[(n.m_cell / m_width - m_y) * m_clusterWidth + (n.m_cell % m_width - m_x)];
+
+				if(cost >= 0)
+					nodeCosts.put(n, cost);
+			}
+
+			return nodeCosts;
+		}
+
+		public void linkNodes()
+		{
+			for(Node n : m_clusterNodes)
+			{
+				for(Iterator<Node> it = n.m_edges.keySet().iterator(); it.hasNext();)
+				{
+					if(it.next().m_cluster == n.m_cluster)
+						it.remove();
+				}
+			}
+
+			for(Node n : m_clusterNodes)
+			{
+				for(Map.Entry<Node, Integer> e : getCosts(n.m_cell % m_width, n.m_cell / m_width).entrySet())
+				{
+					if(e.getKey() != n)
+						link(n, e.getKey(), e.getValue());
+				}
+			}
+		}
+	}
+}
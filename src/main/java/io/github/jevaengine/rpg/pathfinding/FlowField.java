@@ -0,0 +1,242 @@
+/*
+ * Copyright (C) 2015 Jeremy Wildsmith.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+package io.github.jevaengine.rpg.pathfinding;
+
+import io.github.jevaengine.math.Vector2F;
+
+import java.util.Arrays;
+
+/**
+ * The cost of travelling from every cell of a routing grid to a single goal cell, along with the
+ * direction of the next step from each cell. A flow field is computed once and then sampled by any
+ * number of characters heading towards the same goal, so the cost of steering a crowd towards a
+ * target does not grow with the size of the crowd.
+ *
+ * Flow fields are immutable and may be sampled from any thread.
+ *
+ * @author Jeremy
+ */
+public final class FlowField
+{
+	public static final int UNREACHABLE = Integer.MAX_VALUE;
+
+	private static final int STRAIGHT_COST = 10;
+	private static final int DIAGONAL_COST = 14;
+
+	private static final int[] STEP_X = {1, 0, -1, 0, 1, -1, -1, 1};
+	private static final int[] STEP_Y = {0, 1, 0, -1, 1, 1, -1, -1};
+
+	private static final float DIAGONAL_LENGTH = (float)(1.0 / Math.sqrt(2));
+
+	private static final byte NO_STEP = -1;
+
+	private final int m_width;
+	private final int m_height;
+	private final int m_goalX;
+	private final int m_goalY;
+
+	private final int[] m_costs;
+	private final byte[] m_steps;
+
+	public FlowField(IRoutingGrid grid, int goalX, int goalY)
+	{
+		m_width = grid.getWidth();
+		m_height = grid.getHeight();
+		m_goalX = goalX;
+		m_goalY = goalY;
+
+		m_costs = new int[m_width * m_height];
+		m_steps = new byte[m_width * m_height];
+
+		Arrays.fill(m_costs, UNREACHABLE);
+		Arrays.fill(m_steps, NO_STEP);
+
+		if(contains(goalX, goalY) && grid.isTraversable(goalX, goalY))
+			integrate(grid);
+	}
+
+	private boolean contains(int x, int y)
+	{
+		return x >= 0 && y >= 0 && x < m_width && y < m_height;
+	}
+
+	private static boolean isPassable(boolean[] traversable, int width, int x, int y, int step)
+	{
+		//Diagonal steps may not cut the corner of an obstacle.
+		if(step >= 4)
+			return traversable[y * width + x + STEP_X[step]] && traversable[(y + STEP_Y[step]) * width + x];
+
+		return true;
+	}
+
+	//Dijkstra outwards from the goal, over a binary heap of (cost << 32 | cell) keys.
+	private void integrate(IRoutingGrid grid)
+	{
+		boolean[] traversable = new boolean[m_width * m_height];
+
+		for(int y = 0; y < m_height; y++)
+		{
+			for(int x = 0; x < m_width; x++)
+				traversable[y * m_width + x] = grid.isTraversable(x, y);
+		}
+
+		long[] heap = new long[64];
+		int heapSize = 0;
+
+		int goal = m_goalY * m_width + m_goalX;
+		m_costs[goal] = 0;
+		heap[heapSize++] = goal;
+
+		while(heapSize > 0)
+		{
+			long top = heap[0];
+			heap[0] = heap[--heapSize];
+			siftDown(heap, heapSize);
+
+			int cell = (int)top;
+			int cost = (int)(top >>> 32);
+
+			if(cost > m_costs[cell])
+				continue;
+
+			int x = cell % m_width;
+			int y = cell / m_width;
+
+			for(int step = 0; step < STEP_X.length; step++)
+			{
+				int nx = x - STEP_X[step];
+				int ny = y - STEP_Y[step];
+
+				if(!contains(nx, ny))
+					continue;
+
+				int neighbour = ny * m_width + nx;
+
+				//The neighbour steps towards this cell, so test the corner from the neighbour's side.
+				if(!traversable[neighbour] || !isPassable(traversable, m_width, nx, ny, step))
+					continue;
+
+				int neighbourCost = cost + (step >= 4 ? DIAGONAL_COST : STRAIGHT_COST);
+
+				if(neighbourCost >= m_costs[neighbour])
+					continue;
+
+				m_costs[neighbour] = neighbourCost;
+				m_steps[neighbour] = (byte)step;
+
+				if(heapSize == heap.length)
+					heap = Arrays.copyOf(heap, heap.length * 2);
+
+				heap[heapSize] = ((long)neighbourCost << 32) | neighbour;
+				siftUp(heap, heapSize++);
+			}
+		}
+	}
+
+	private static void siftUp(long[] heap, int index)
+	{
+		long key = heap[index];
+
+		while(index > 0)
+		{
+			int parent = (index - 1) >>> 1;
+
+			if(heap[parent] <= key)
+				break;
+
+			heap[index] = heap[parent];
+			index = parent;
+		}
+
+		heap[index] = key;
+	}
+
+	private static void siftDown(long[] heap, int size)
+	{
+		if(size == 0)
+			return;
+
+		long key = heap[0];
+		int index = 0;
+
+		while(true)
+		{
+			int child = 2 * index + 1;
+
+			if(child >= size)
+				break;
+
+			if(child + 1 < size && heap[child + 1] < heap[child])
+				child++;
+
+			if(heap[child] >= key)
+				break;
+
+			heap[index] = heap[child];
+			index = child;
+		}
+
+		heap[index] = key;
+	}
+
+	public int getGoalX()
+	{
+		return m_goalX;
+	}
+
+	public int getGoalY()
+	{
+		return m_goalY;
+	}
+
+	/**
+	 * @return The cost of travelling from the given cell to the goal, ten per straight step, or {@link #UNREACHABLE}.
+	 */
+	public int getCost(int x, int y)
+	{
+		return contains(x, y) ? m_costs[y * m_width + x] : UNREACHABLE;
+	}
+
+	public boolean isReachable(int x, int y)
+	{
+		return getCost(x, y) != UNREACHABLE;
+	}
+
+	/**
+	 * @return A unit vector pointing to the next cell on the way to the goal from the cell at the
+	 *         given location, or a zero vector if the location is on the goal cell or cannot reach it.
+	 */
+	public Vector2F getDirection(Vector2F location)
+	{
+		int x = (int)Math.floor(location.x);
+		int y = (int)Math.floor(location.y);
+
+		if(!contains(x, y))
+			return new Vector2F();
+
+		byte step = m_steps[y * m_width + x];
+
+		if(step == NO_STEP)
+			return new Vector2F();
+
+		float length = step >= 4 ? DIAGONAL_LENGTH : 1.0F;
+
+		return new Vector2F(STEP_X[step] * length, STEP_Y[step] * length);
+	}
+}
@@ -0,0 +1,67 @@
+/*
+ * Copyright (C) 2015 Jeremy Wildsmith.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+package io.github.jevaengine.rpg.pathfinding;
+
+import io.github.jevaengine.math.Vector2F;
+import io.github.jevaengine.world.physics.IPhysicsBody;
+import io.github.jevaengine.world.steering.ISteeringBehavior;
+
+/**
+ * Steers a body along a flow field, then directly towards the goal location once on the goal cell.
+ * Stops (directs a zero vector) within the arrival tolerance of the goal, or where the goal cannot
+ * be reached.
+ *
+ * @author Jeremy
+ */
+public final class FlowFieldBehavior implements ISteeringBehavior
+{
+	private final IPhysicsBody m_body;
+	private final FlowField m_field;
+	private final Vector2F m_goal;
+	private final float m_arrivalTolorance;
+
+	public FlowFieldBehavior(IPhysicsBody body, FlowField field, Vector2F goal, float arrivalTolorance)
+	{
+		m_body = body;
+		m_field = field;
+		m_goal = new Vector2F(goal);
+		m_arrivalTolorance = arrivalTolorance;
+	}
+
+	@Override
+	public Vector2F direct()
+	{
+		Vector2F location = m_body.getLocation().getXy();
+
+		float dx = m_goal.x - location.x;
+		float dy = m_goal.y - location.y;
+		float distance = (float)Math.sqrt(dx * dx + dy * dy);
+
+		if(distance <= m_arrivalTolorance)
+			return new Vector2F();
+
+		int x = (int)Math.floor(location.x);
+		int y = (int)Math.floor(location.y);
+
+		if(x == m_field.getGoalX() && y == m_field.getGoalY())
+			return new Vector2F(dx / distance, dy / distance);
+
+		return m_field.getDirection(location);
+	}
+}
@@ -0,0 +1,392 @@
+/*
+ * Copyright (C) 2015 Jeremy Wildsmith.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+package io.github.jevaengine.rpg.pathfinding;
+
+import io.github.jevaengine.math.Vector2F;
+import io.github.jevaengine.util.Nullable;
+
+import java.util.Arrays;
+
+/**
+ * A resumable A* search over a routing grid. The search is advanced a bounded number of node
+ * expansions at a time by a {@link RouteSearchScheduler}, so a long search is spread over several
+ * frames rather than stalling one.
+ *
+ * With a step limit, the search completes as soon as it reaches a node that many steps from the
+ * start, yielding a partial path towards the goal; a short hop then never pays for searching
+ * the entire map. A non-positive step limit accepts no partial path, so the search remains
+ * pending until it reaches the goal or runs out of nodes.
+ *
+ * @author Jeremy
+ */
+public final class GridSearch
+{
+	private static final int STRAIGHT_COST = 10;
+	private static final int DIAGONAL_COST = 14;
+
+	private static final int[] STEP_X = {1, 0, -1, 0, 1, -1, -1, 1};
+	private static final int[] STEP_Y = {0, 1, 0, -1, 1, 1, -1, -1};
+
+	private final IRoutingGrid m_grid;
+	private final int m_width;
+
+	private final int m_minX;
+	private final int m_minY;
+	private final int m_maxX;
+	private final int m_maxY;
+
+	private final int m_goalX;
+	private final int m_goalY;
+	private final Vector2F m_destination;
+	private final int m_maxSteps;
+
+	private final int m_priority;
+	private final long m_sequence;
+
+	//Open addressing map from cell to node; keys are offset by one so that zero marks an empty slot.
+	private int[] m_nodeKeys = new int[128];
+	private int[] m_nodeValues = new int[128];
+	private int[] m_cells = new int[64];
+	private int[] m_costs = new int[64];
+	private int[] m_parents = new int[64];
+	private int[] m_steps = new int[64];
+	private boolean[] m_closed = new boolean[64];
+	private int m_nodeCount = 0;
+
+	private long[] m_open = new long[64];
+	private int m_openSize = 0;
+
+	private volatile boolean m_isDone = false;
+	private volatile boolean m_isCancelled = false;
+
+	@Nullable
+	private volatile Vector2F[] m_waypoints = null;
+
+	GridSearch(IRoutingGrid grid, Vector2F start, Vector2F destination, int maxSteps, int priority, long sequence)
+	{
+		this(grid, start, destination, maxSteps, priority, sequence, 0, 0, grid.getWidth(), grid.getHeight());
+	}
+
+	/**
+	 * Constructs a search confined to the cells within [minX, maxX) by [minY, maxY).
+	 */
+	GridSearch(IRoutingGrid grid, Vector2F start, Vector2F destination, int maxSteps, int priority, long sequence,
+				int minX, int minY, int maxX, int maxY)
+	{
+		m_grid = grid;
+		m_width = grid.getWidth();
+		m_minX = Math.max(0, minX);
+		m_minY = Math.max(0, minY);
+		m_maxX = Math.min(grid.getWidth(), maxX);
+		m_maxY = Math.min(grid.getHeight(), maxY);
+		m_destination = new Vector2F(destination);
+		m_goalX = (int)Math.floor(destination.x);
+		m_goalY = (int)Math.floor(destination.y);
+		m_maxSteps = maxSteps;
+		m_priority = priority;
+		m_sequence = sequence;
+
+		int startX = (int)Math.floor(start.x);
+		int startY = (int)Math.floor(start.y);
+
+		if(!isTraversable(startX, startY) || !isTraversable(m_goalX, m_goalY))
+			m_isDone = true;
+		else
+			push(addNode(startY * m_width + startX, 0, -1, 0), heuristic(startX, startY));
+	}
+
+	int getPriority()
+	{
+		return m_priority;
+	}
+
+	long getSequence()
+	{
+		return m_sequence;
+	}
+
+	public boolean isDone()
+	{
+		return m_isDone;
+	}
+
+	/**
+	 * @return Whether the search completed with a (possibly partial) path.
+	 */
+	public boolean isSuccessful()
+	{
+		return m_waypoints != null;
+	}
+
+	/**
+	 * @return The centres of the cells along the path, excluding the start cell, ending at the
+	 *         destination if it was reached. Null if the search is incomplete or failed.
+	 */
+	@Nullable
+	public Vector2F[] getWaypoints()
+	{
+		return m_waypoints;
+	}
+
+	/**
+	 * Abandons the search. A cancelled search is discarded by its scheduler without further expansions.
+	 */
+	public void cancel()
+	{
+		m_isCancelled = true;
+		m_isDone = true;
+	}
+
+	public boolean isCancelled()
+	{
+		return m_isCancelled;
+	}
+
+	private boolean isTraversable(int x, int y)
+	{
+		return x >= m_minX && y >= m_minY && x < m_maxX && y < m_maxY && m_grid.isTraversable(x, y);
+	}
+
+	//Octile distance, consistent with the straight and diagonal step costs.
+	private int heuristic(int x, int y)
+	{
+		int dx = Math.abs(x - m_goalX);
+		int dy = Math.abs(y - m_goalY);
+
+		return STRAIGHT_COST * Math.max(dx, dy) + (DIAGONAL_COST - STRAIGHT_COST) * Math.min(dx, dy);
+	}
+
+	private int addNode(int cell, int cost, int parent, int steps)
+	{
+		if(m_nodeCount == m_cells.length)
+		{
+			int capacity = m_cells.length * 2;
+			m_cells = Arrays.copyOf(m_cells, capacity);
+			m_costs = Arrays.copyOf(m_costs, capacity);
+			m_parents = Arrays.copyOf(m_parents, capacity);
+			m_steps = Arrays.copyOf(m_steps, capacity);
+			m_closed = Arrays.copyOf(m_closed, capacity);
+		}
+
+		int node = m_nodeCount++;
+		m_cells[node] = cell;
+		m_costs[node] = cost;
+		m_parents[node] = parent;
+		m_steps[node] = steps;
+		m_closed[node] = false;
+
+		if(m_nodeCount * 2 > m_nodeKeys.length)
+		{
+			m_nodeKeys = new int[m_nodeKeys.length * 2];
+			m_nodeValues = new int[m_nodeValues.length * 2];
+
+			for(int n = 0; n < m_nodeCount; n++)
+				putNode(m_cells[n], n);
+		} else
+			putNode(cell, node);
+
+		return node;
+	}
+
+	private static int hash(int cell)
+	{
+		int hash = cell * 0x9E3779B9;
+		return hash ^ (hash >>> 16);
+	}
+
+	private void putNode(int cell, int node)
+	{
+		int mask = m_nodeKeys.length - 1;
+		int index = hash(cell) & mask;
+
+		while(m_nodeKeys[index] != 0)
+			index = (index + 1) & mask;
+
+		m_nodeKeys[index] = cell + 1;
+		m_nodeValues[index] = node;
+	}
+
+	/**
+	 * @return The node of the given cell, or -1 if the cell has not been reached.
+	 */
+	private int findNode(int cell)
+	{
+		int mask = m_nodeKeys.length - 1;
+
+		for(int index = hash(cell) & mask; m_nodeKeys[index] != 0; index = (index + 1) & mask)
+		{
+			if(m_nodeKeys[index] == cell + 1)
+				return m_nodeValues[index];
+		}
+
+		return -1;
+	}
+
+	private void push(int node, int heuristic)
+	{
+		if(m_openSize == m_open.length)
+			m_open = Arrays.copyOf(m_open, m_open.length * 2);
+
+		long key = ((long)(m_costs[node] + heuristic) << 32) | node;
+		int index = m_openSize++;
+
+		while(index > 0)
+		{
+			int parent = (index - 1) >>> 1;
+
+			if(m_open[parent] <= key)
+				break;
+
+			m_open[index] = m_open[parent];
+			index = parent;
+		}
+
+		m_open[index] = key;
+	}
+
+	private int pop()
+	{
+		long top = m_open[0];
+		long key = m_open[--m_openSize];
+		int index = 0;
+
+		while(true)
+		{
+			int child = 2 * index + 1;
+
+			if(child >= m_openSize)
+				break;
+
+			if(child + 1 < m_openSize && m_open[child + 1] < m_open[child])
+				child++;
+
+			if(m_open[child] >= key)
+				break;
+
+			m_open[index] = m_open[child];
+			index = child;
+		}
+
+		if(m_openSize > 0)
+			m_open[index] = key;
+
+		return (int)top;
+	}
+
+	/**
+	 * Advances the search by at most the given number of node expansions.
+	 *
+	 * @return The number of expansions performed.
+	 */
+	int search(int budget)
+	{
+		int expansions = 0;
+
+		if(budget <= 0)
+			return 0;
+
+		while(!m_isDone && expansions < budget)
+		{
+			if(m_openSize == 0)
+			{
+				m_isDone = true;
+				break;
+			}
+
+			int node = pop();
+
+			if(m_closed[node])
+				continue;
+
+			m_closed[node] = true;
+			expansions++;
+
+			int x = m_cells[node] % m_width;
+			int y = m_cells[node] / m_width;
+
+			if(x == m_goalX && y == m_goalY)
+			{
+				complete(node, true);
+				break;
+			} else if(m_maxSteps > 0 && m_steps[node] >= m_maxSteps)
+			{
+				complete(node, false);
+				break;
+			}
+
+			for(int step = 0; step < STEP_X.length; step++)
+			{
+				int nx = x + STEP_X[step];
+				int ny = y + STEP_Y[step];
+
+				if(!isTraversable(nx, ny))
+					continue;
+
+				//Diagonal steps may not cut the corner of an obstacle.
+				if(step >= 4 && (!isTraversable(nx, y) || !isTraversable(x, ny)))
+					continue;
+
+				int cell = ny * m_width + nx;
+				int cost = m_costs[node] + (step >= 4 ? DIAGONAL_COST : STRAIGHT_COST);
+
+				int existing = findNode(cell);
+
+				if(existing < 0)
+					push(addNode(cell, cost, node, m_steps[node] + 1), heuristic(nx, ny));
+				else if(!m_closed[existing] && cost < m_costs[existing])
+				{
+					m_costs[existing] = cost;
+					m_parents[existing] = node;
+					m_steps[existing] = m_steps[node] + 1;
+					push(existing, heuristic(nx, ny));
+				}
+			}
+		}
+
+		return expansions;
+	}
+
+	private void complete(int node, boolean isGoal)
+	{
+		Vector2F[] waypoints = new Vector2F[Math.max(1, m_steps[node])];
+
+		if(m_steps[node] == 0)
+			waypoints[0] = new Vector2F(m_destination);
+		else
+		{
+			for(int current = node; m_parents[current] >= 0; current = m_parents[current])
+			{
+				int cell = m_cells[current];
+				waypoints[m_steps[current] - 1] = new Vector2F(cell % m_width + 0.5F, cell / m_width + 0.5F);
+			}
+
+			if(isGoal)
+				waypoints[waypoints.length - 1] = new Vector2F(m_destination);
+		}
+
+		m_waypoints = waypoints;
+		m_isDone = true;
+
+		//Release the search state; only the path is retained.
+		m_nodeKeys = new int[0];
+		m_nodeValues = new int[0];
+		m_open = new long[0];
+		m_openSize = 0;
+	}
+}
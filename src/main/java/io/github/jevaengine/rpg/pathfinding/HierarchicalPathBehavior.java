@@ -0,0 +1,189 @@
+/*
+ * Copyright (C) 2015 Jeremy Wildsmith.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+package io.github.jevaengine.rpg.pathfinding;
+
+import io.github.jevaengine.math.Vector2F;
+import io.github.jevaengine.util.Nullable;
+import io.github.jevaengine.world.physics.IPhysicsBody;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Arrays;
+
+/**
+ * Steers a body along an abstract path found by a {@link ClusterGraph}, refining each leg into
+ * cells only once the previous leg is complete. Given a {@link RouteSearchScheduler}, legs are
+ * refined under its per-frame budget, and the behavior is pending while a leg is being refined.
+ *
+ * Where a leg can no longer be completed (e.g. a door has since closed), a new abstract path is
+ * found from the body's current location. Stops at the destination, after the given number of
+ * steps, or once the destination can no longer be reached.
+ *
+ * @author Jeremy
+ */
+public final class HierarchicalPathBehavior implements IPendingSteeringBehavior
+{
+	private static final int MAX_REPLANS = 3;
+
+	private final Logger m_logger = LoggerFactory.getLogger(HierarchicalPathBehavior.class);
+
+	private final IPhysicsBody m_body;
+	private final ClusterGraph m_graph;
+	private final float m_arrivalTolorance;
+	private final int m_maxSteps;
+
+	@Nullable
+	private final RouteSearchScheduler m_scheduler;
+	private final int m_priority;
+
+	private Vector2F[] m_path;
+	private int m_next = 0;
+	private int m_steps = 0;
+	private int m_replans = 0;
+	private boolean m_isFailed = false;
+
+	@Nullable
+	private WaypointBehavior m_leg = null;
+
+	@Nullable
+	private GridSearch m_pendingLeg = null;
+
+	/**
+	 * @param scheduler The scheduler legs are refined on, or null to refine each leg immediately.
+	 * @param priority The priority of leg refinements, lower values being served first.
+	 */
+	public HierarchicalPathBehavior(IPhysicsBody body, ClusterGraph graph, Vector2F[] path, float arrivalTolorance, int maxSteps,
+									@Nullable RouteSearchScheduler scheduler, int priority)
+	{
+		m_body = body;
+		m_graph = graph;
+		m_path = path;
+		m_arrivalTolorance = arrivalTolorance;
+		m_maxSteps = maxSteps;
+		m_scheduler = scheduler;
+		m_priority = priority;
+	}
+
+	public HierarchicalPathBehavior(IPhysicsBody body, ClusterGraph graph, Vector2F[] path, float arrivalTolorance, int maxSteps)
+	{
+		this(body, graph, path, arrivalTolorance, maxSteps, null, 0);
+	}
+
+	@Override
+	public boolean isPending()
+	{
+		return m_pendingLeg != null && !m_isFailed;
+	}
+
+	/**
+	 * @return Whether the destination could no longer be reached.
+	 */
+	public boolean isFailed()
+	{
+		return m_isFailed;
+	}
+
+	/**
+	 * Abandons the leg being refined, if any.
+	 */
+	public void cancel()
+	{
+		if(m_pendingLeg != null)
+		{
+			m_pendingLeg.cancel();
+			m_pendingLeg = null;
+		}
+	}
+
+	@Nullable
+	private Vector2F[] refineNextLeg(Vector2F from)
+	{
+		if(m_scheduler == null)
+			return m_graph.refine(from, m_path[m_next]);
+
+		if(m_pendingLeg == null)
+			m_pendingLeg = m_scheduler.refine(m_graph, from, m_path[m_next], m_priority);
+
+		if(!m_pendingLeg.isDone())
+			return null;
+
+		Vector2F[] waypoints = m_pendingLeg.getWaypoints();
+		m_pendingLeg = null;
+
+		return waypoints;
+	}
+
+	private void replan(Vector2F from)
+	{
+		Vector2F destination = m_path[m_path.length - 1];
+
+		m_logger.warn(String.format("Unable to refine path towards %f, %f; replanning from %f, %f.", m_path[m_next].x, m_path[m_next].y, from.x, from.y));
+
+		Vector2F[] path = m_replans++ < MAX_REPLANS ? m_graph.findPath(from, destination) : null;
+
+		if(path == null)
+		{
+			m_logger.error(String.format("Unable to construct path to %f, %f.", destination.x, destination.y));
+			m_isFailed = true;
+			return;
+		}
+
+		m_path = path;
+		m_next = 0;
+	}
+
+	@Override
+	public Vector2F direct()
+	{
+		while(true)
+		{
+			if(m_leg != null)
+			{
+				Vector2F direction = m_leg.direct();
+
+				if(!direction.isZero())
+					return direction;
+
+				m_leg = null;
+			}
+
+			if(m_isFailed || m_next >= m_path.length || m_steps >= m_maxSteps)
+				return new Vector2F();
+
+			Vector2F from = m_body.getLocation().getXy();
+			Vector2F[] waypoints = refineNextLeg(from);
+
+			if(m_pendingLeg != null)
+				return new Vector2F();
+
+			if(waypoints == null)
+			{
+				replan(from);
+				continue;
+			}
+
+			if(waypoints.length > m_maxSteps - m_steps)
+				waypoints = Arrays.copyOf(waypoints, m_maxSteps - m_steps);
+
+			m_steps += waypoints.length;
+			m_next++;
+			m_leg = new WaypointBehavior(m_body, waypoints, m_arrivalTolorance);
+		}
+	}
+}
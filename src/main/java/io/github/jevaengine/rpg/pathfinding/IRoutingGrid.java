@@ -0,0 +1,54 @@
+/*
+ * Copyright (C) 2015 Jeremy Wildsmith.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+package io.github.jevaengine.rpg.pathfinding;
+
+/**
+ * A grid of unit cells covering a world, describing which cells can be walked through. Cell (x, y)
+ * covers world locations [x, x + 1) by [y, y + 1).
+ *
+ * @author Jeremy
+ */
+public interface IRoutingGrid
+{
+	int getWidth();
+	int getHeight();
+	
+	boolean isTraversable(int x, int y);
+	
+	public static final class NullRoutingGrid implements IRoutingGrid
+	{
+		@Override
+		public int getWidth()
+		{
+			return 0;
+		}
+
+		@Override
+		public int getHeight()
+		{
+			return 0;
+		}
+
+		@Override
+		public boolean isTraversable(int x, int y)
+		{
+			return false;
+		}
+	}
+}
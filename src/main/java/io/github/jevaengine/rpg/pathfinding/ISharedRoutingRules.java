@@ -0,0 +1,35 @@
+/*
+ * Copyright (C) 2015 Jeremy Wildsmith.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+package io.github.jevaengine.rpg.pathfinding;
+
+import io.github.jevaengine.world.pathfinding.IRoutingRules;
+
+/**
+ * Routing rules which may share cached routes with other rules. Rules whose profiles are equal
+ * must route identically, e.g. rules for bodies of the same size with the same movement directions.
+ *
+ * @author Jeremy
+ */
+public interface ISharedRoutingRules extends IRoutingRules
+{
+	/**
+	 * @return An object identifying how these rules route, implementing equals and hashCode accordingly.
+	 */
+	Object getRoutingProfile();
+}
@@ -0,0 +1,136 @@
+/*
+ * Copyright (C) 2015 Jeremy Wildsmith.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+package io.github.jevaengine.rpg.pathfinding;
+
+import io.github.jevaengine.math.Vector2F;
+import io.github.jevaengine.util.Nullable;
+import io.github.jevaengine.world.steering.ISteeringBehavior;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Steers along a sequence of legs (e.g. route traversal behaviors), one after another. Legs can be
+ * spliced into the chain while it is being followed, which allows a route to be extended towards a
+ * moved goal without planning it again from the start. Directs a zero vector once every leg is complete.
+ *
+ * @author Jeremy
+ */
+public final class RouteChainBehavior implements ISteeringBehavior
+{
+	private final List<Leg> m_legs = new ArrayList<>();
+
+	public RouteChainBehavior(ISteeringBehavior firstLeg, Vector2F end)
+	{
+		m_legs.add(new Leg(firstLeg, end));
+	}
+
+	/**
+	 * Finds the remaining waypoint, or the given current location, nearest to the given location.
+	 * 
+	 * @return The leg ending at the nearest waypoint, or null if the current location is nearest.
+	 */
+	@Nullable
+	public ISteeringBehavior findNearestWaypoint(Vector2F location, Vector2F current)
+	{
+		ISteeringBehavior nearest = null;
+		float nearestDistance = current.difference(location).getLength();
+
+		for(Leg l : m_legs)
+		{
+			float distance = l.m_end.difference(location).getLength();
+
+			if(distance < nearestDistance)
+			{
+				nearest = l.m_behavior;
+				nearestDistance = distance;
+			}
+		}
+
+		return nearest;
+	}
+
+	/**
+	 * @return The location at which the given leg ends.
+	 */
+	public Vector2F getWaypoint(ISteeringBehavior leg)
+	{
+		for(Leg l : m_legs)
+		{
+			if(l.m_behavior == leg)
+				return l.m_end;
+		}
+
+		throw new IllegalArgumentException("Leg is not part of this chain.");
+	}
+
+	/**
+	 * Replaces every leg following the given leg with the given leg. If previous is null, or has
+	 * since been completed, every remaining leg is replaced.
+	 */
+	public void splice(@Nullable ISteeringBehavior previous, ISteeringBehavior leg, Vector2F end)
+	{
+		int keep = 0;
+
+		for(int i = 0; i < m_legs.size(); i++)
+		{
+			if(m_legs.get(i).m_behavior == previous)
+				keep = i + 1;
+		}
+
+		m_legs.subList(keep, m_legs.size()).clear();
+		m_legs.add(new Leg(leg, end));
+	}
+
+	/**
+	 * @return The number of legs not yet completed.
+	 */
+	public int getRemainingLegs()
+	{
+		return m_legs.size();
+	}
+
+	@Override
+	public Vector2F direct()
+	{
+		while(!m_legs.isEmpty())
+		{
+			Vector2F direction = m_legs.get(0).m_behavior.direct();
+
+			if(!direction.isZero() || m_legs.size() == 1)
+				return direction;
+
+			m_legs.remove(0);
+		}
+
+		return new Vector2F();
+	}
+
+	private static final class Leg
+	{
+		private final ISteeringBehavior m_behavior;
+		private final Vector2F m_end;
+
+		public Leg(ISteeringBehavior behavior, Vector2F end)
+		{
+			m_behavior = behavior;
+			m_end = end;
+		}
+	}
+}
@@ -0,0 +1,113 @@
+/*
+ * Copyright (C) 2015 Jeremy Wildsmith.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+package io.github.jevaengine.rpg.pathfinding;
+
+import io.github.jevaengine.math.Vector2F;
+
+import java.util.Comparator;
+import java.util.PriorityQueue;
+
+/**
+ * Runs grid searches under a global per-frame budget of node expansions, shared by every
+ * character. Pending searches are served in order of priority (lower values first, e.g. characters
+ * visible to the player), then in the order they were requested; a search which exhausts the
+ * budget resumes where it left off on the next frame.
+ *
+ * {@link #update()} must be invoked once per frame.
+ *
+ * @author Jeremy
+ */
+public final class RouteSearchScheduler
+{
+	private static final Comparator<GridSearch> SEARCH_ORDER = new Comparator<GridSearch>() {
+		@Override
+		public int compare(GridSearch a, GridSearch b)
+		{
+			int result = Integer.compare(a.getPriority(), b.getPriority());
+			return result != 0 ? result : Long.compare(a.getSequence(), b.getSequence());
+		}
+	};
+
+	private final int m_expansionsPerFrame;
+
+	private final PriorityQueue<GridSearch> m_searches = new PriorityQueue<>(16, SEARCH_ORDER);
+	private long m_nextSequence = 0;
+
+	public RouteSearchScheduler(int expansionsPerFrame)
+	{
+		m_expansionsPerFrame = expansionsPerFrame;
+	}
+
+	public int getExpansionsPerFrame()
+	{
+		return m_expansionsPerFrame;
+	}
+
+	/**
+	 * Queues a search for a path from start to destination.
+	 *
+	 * @param maxSteps The number of steps after which a partial path is accepted, or a non-positive value to only accept a complete path.
+	 * @param priority The priority of the search, lower values being served first.
+	 */
+	public synchronized GridSearch request(IRoutingGrid grid, Vector2F start, Vector2F destination, int maxSteps, int priority)
+	{
+		GridSearch search = new GridSearch(grid, start, destination, maxSteps, priority, m_nextSequence++);
+
+		if(!search.isDone())
+			m_searches.add(search);
+
+		return search;
+	}
+
+	/**
+	 * Queues a search refining a leg of a path found by the given cluster graph.
+	 *
+	 * @see ClusterGraph#refine(Vector2F, Vector2F)
+	 */
+	public synchronized GridSearch refine(ClusterGraph graph, Vector2F from, Vector2F to, int priority)
+	{
+		GridSearch search = graph.createRefinement(from, to, priority, m_nextSequence++);
+
+		if(!search.isDone())
+			m_searches.add(search);
+
+		return search;
+	}
+
+	public synchronized int getPendingCount()
+	{
+		return m_searches.size();
+	}
+
+	public synchronized void update()
+	{
+		int budget = m_expansionsPerFrame;
+
+		while(budget > 0 && !m_searches.isEmpty())
+		{
+			GridSearch search = m_searches.peek();
+
+			if(!search.isDone())
+				budget -= search.search(budget);
+
+			if(search.isDone())
+				m_searches.poll();
+		}
+	}
+}
@@ -0,0 +1,688 @@
+/*
+ * Copyright (C) 2015 Jeremy Wildsmith.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+package io.github.jevaengine.rpg.pathfinding;
+
+import io.github.jevaengine.math.Vector2F;
+import io.github.jevaengine.math.Vector3F;
+import io.github.jevaengine.rpg.entity.Door;
+import io.github.jevaengine.rpg.entity.Door.IDoorObserver;
+import io.github.jevaengine.util.Nullable;
+import io.github.jevaengine.world.World;
+import io.github.jevaengine.world.pathfinding.AStarRouteFactory;
+import io.github.jevaengine.world.pathfinding.IRouteFactory;
+import io.github.jevaengine.world.pathfinding.IRoutingRules;
+import io.github.jevaengine.world.pathfinding.IncompleteRouteException;
+import io.github.jevaengine.world.pathfinding.Route;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Pathfinding service shared by the characters of the rpg layer. Routes are computed by the
+ * underlying route factory and cached by their start cell, goal cell and routing rules. Callers
+ * always receive their own copy of a cached route.
+ *
+ * Routes are only shared between equal routing rules, which for most rules means the same
+ * instance. For crowds of characters heading to the same place to share one search, their rules
+ * must implement {@link ISharedRoutingRules} with equal profiles (e.g. {@link SharedEntityRoutingRules}).
+ * Cached routes of a world are discarded when one of its watched doors opens or closes, or when
+ * {@link #invalidate(World)} is invoked after its static obstacles otherwise change.
+ *
+ * All state of a world (its cached routes, flow fields, grid and cluster graph) is held apart from
+ * that of other worlds, and referenced weakly by the world. Cached routes may refer back to their
+ * world through their routing rules though, so {@link #release(World)} should be invoked once a
+ * world is disposed of.
+ *
+ * Worlds may also be registered with a {@link IRoutingGrid}, in which case the service provides
+ * shared flow fields towards goal cells in those worlds (see {@link #requestFlowField}). Given an
+ * executor, flow fields are computed on its threads against a snapshot of the grid.
+ *
+ * Given a cluster size, the service also maintains a {@link ClusterGraph} over each registered grid
+ * for hierarchical pathfinding across large worlds (see {@link #getClusterGraph}). Watched doors
+ * rebuild only the clusters around them.
+ *
+ * If a {@link RouteSearchScheduler} is also provided, {@link #search} finds paths over those grids
+ * under the scheduler's per-frame expansion budget. Otherwise, when constructed with an executor,
+ * {@link #search} runs on the executor's threads against a snapshot of the grid taken on the
+ * calling thread, so long searches neither stall the game thread nor read the world while it is
+ * being updated. Snapshots are reused until the world is invalidated.
+ *
+ * Routes of the underlying route factory read the live world, and so are always computed on the
+ * calling thread. Only searches over registered grids (see {@link #search}) leave the calling thread.
+ *
+ * @author Jeremy
+ */
+public final class RouteService
+{
+	private static final int DEFAULT_CAPACITY = 1024;
+	private static final int FLOW_FIELD_CAPACITY = 16;
+
+	private final IRouteFactory m_routeFactory;
+	private final int m_capacity;
+	
+	@Nullable
+	private final Executor m_executor;
+
+	private final Map<World, WorldRoutes> m_worlds = new WeakHashMap<>();
+	private long m_generation = 0;
+	
+	@Nullable
+	private RouteSearchScheduler m_searchScheduler = null;
+	
+	private int m_clusterSize = 0;
+
+	private final AtomicLong m_hits = new AtomicLong();
+	private final AtomicLong m_misses = new AtomicLong();
+
+	/**
+	 * @param capacity The maximum number of routes to cache per world, or zero to disable caching.
+	 * @param executor The executor flow fields, and grid searches where there is no search scheduler, are computed on, or null.
+	 */
+	public RouteService(IRouteFactory routeFactory, int capacity, @Nullable Executor executor)
+	{
+		m_routeFactory = routeFactory;
+		m_capacity = capacity;
+		m_executor = executor;
+	}
+
+	public RouteService(IRouteFactory routeFactory, int capacity)
+	{
+		this(routeFactory, capacity, null);
+	}
+
+	public RouteService(IRouteFactory routeFactory)
+	{
+		this(routeFactory, DEFAULT_CAPACITY);
+	}
+
+	public RouteService()
+	{
+		this(new AStarRouteFactory());
+	}
+
+	public IRouteFactory getRouteFactory()
+	{
+		return m_routeFactory;
+	}
+
+	private static int toCell(float coordinate)
+	{
+		return (int)Math.floor(coordinate);
+	}
+
+	private synchronized WorldRoutes getRoutes(World world)
+	{
+		WorldRoutes routes = m_worlds.get(world);
+
+		if(routes == null)
+		{
+			routes = new WorldRoutes();
+			m_worlds.put(world, routes);
+		}
+
+		return routes;
+	}
+
+	/**
+	 * Discards all state held for the given world, e.g. once it has been disposed of.
+	 */
+	public synchronized void release(World world)
+	{
+		m_generation++;
+		m_worlds.remove(world);
+	}
+
+	public Route create(IRoutingRules rules, World world, Vector2F start, Vector2F destination, float arrivalTolorance) throws IncompleteRouteException
+	{
+		if(m_capacity == 0)
+			return m_routeFactory.create(rules, world, start, destination, arrivalTolorance);
+
+		Object profile = rules instanceof ISharedRoutingRules ? ((ISharedRoutingRules)rules).getRoutingProfile() : rules;
+		RouteKey key = new RouteKey(profile, toCell(start.x), toCell(start.y), toCell(destination.x), toCell(destination.y), arrivalTolorance);
+		WorldRoutes routes;
+		long generation;
+
+		synchronized(this)
+		{
+			routes = getRoutes(world);
+			generation = m_generation;
+			Route cached = routes.m_routes.get(key);
+
+			if(cached != null)
+			{
+				m_hits.incrementAndGet();
+				return new Route(cached);
+			}
+		}
+
+		m_misses.incrementAndGet();
+
+		Route route = m_routeFactory.create(rules, world, start, destination, arrivalTolorance);
+
+		synchronized(this)
+		{
+			//Do not cache routes found before the world was invalidated or released.
+			if(m_generation == generation)
+				routes.m_routes.put(key, new Route(route));
+		}
+
+		return route;
+	}
+
+	/**
+	 * Creates a random route within the given radius. Random routes are never cached.
+	 */
+	public Route create(IRoutingRules rules, World world, Vector2F start, int radius)
+	{
+		return m_routeFactory.create(rules, world, start, radius);
+	}
+
+	/**
+	 * Registers the routing grid of a world, enabling flow fields in that world. Passing null unregisters the world.
+	 */
+	public synchronized void setRoutingGrid(World world, @Nullable IRoutingGrid grid)
+	{
+		invalidate(world);
+		getRoutes(world).m_grid = grid;
+	}
+
+	@Nullable
+	public synchronized IRoutingGrid getRoutingGrid(World world)
+	{
+		WorldRoutes routes = m_worlds.get(world);
+
+		return routes == null ? null : routes.m_grid;
+	}
+
+	/**
+	 * @param clusterSize The width, in cells, of the clusters of hierarchical pathfinding, or zero to disable it.
+	 */
+	public synchronized void setClusterSize(int clusterSize)
+	{
+		m_clusterSize = clusterSize;
+
+		for(WorldRoutes routes : m_worlds.values())
+			routes.m_clusterGraph = null;
+	}
+
+	/**
+	 * Provides the cluster graph of the world's routing grid, building it when first requested.
+	 *
+	 * @return The cluster graph, or null if the world has no routing grid or hierarchical pathfinding is disabled.
+	 */
+	@Nullable
+	public synchronized ClusterGraph getClusterGraph(World world)
+	{
+		IRoutingGrid grid = getRoutingGrid(world);
+
+		if(grid == null || m_clusterSize <= 0)
+			return null;
+
+		WorldRoutes routes = getRoutes(world);
+
+		if(routes.m_clusterGraph == null)
+			routes.m_clusterGraph = new ClusterGraph(grid, m_clusterSize);
+
+		return routes.m_clusterGraph;
+	}
+
+	public synchronized void setSearchScheduler(@Nullable RouteSearchScheduler searchScheduler)
+	{
+		m_searchScheduler = searchScheduler;
+	}
+
+	@Nullable
+	public synchronized RouteSearchScheduler getSearchScheduler()
+	{
+		return m_searchScheduler;
+	}
+
+	/**
+	 * Queues a search over the world's routing grid, either budgeted by the search scheduler or run on
+	 * the executor. The routing grid takes the place of routing rules for these searches.
+	 *
+	 * @return The pending search, or null if the world has no routing grid or neither a search scheduler nor executor has been provided.
+	 */
+	@Nullable
+	public GridSearch search(World world, Vector2F start, Vector2F destination, int maxSteps, int priority)
+	{
+		IRoutingGrid grid;
+		RouteSearchScheduler scheduler;
+
+		synchronized(this)
+		{
+			grid = getRoutingGrid(world);
+			scheduler = m_searchScheduler;
+		}
+
+		if(grid == null)
+			return null;
+
+		if(scheduler != null)
+			return scheduler.request(grid, start, destination, maxSteps, priority);
+
+		if(m_executor == null)
+			return null;
+
+		final GridSearch search = new GridSearch(getSnapshot(world, grid), start, destination, maxSteps, priority, 0);
+
+		if(!search.isDone())
+		{
+			m_executor.execute(new Runnable() {
+				@Override
+				public void run()
+				{
+					search.search(Integer.MAX_VALUE);
+				}
+			});
+		}
+
+		return search;
+	}
+
+	private synchronized IRoutingGrid getSnapshot(World world, IRoutingGrid grid)
+	{
+		WorldRoutes routes = getRoutes(world);
+
+		if(routes.m_snapshot == null)
+			routes.m_snapshot = new GridSnapshot(grid);
+
+		return routes.m_snapshot;
+	}
+
+	/**
+	 * Requests the flow field towards the cell containing the goal. Fields are cached per goal cell,
+	 * so every character heading to the same cell shares a single field, which is only computed again
+	 * once the goal moves to another cell. Characters requesting a field which is still being computed
+	 * share the pending request.
+	 *
+	 * The returned future is shared, and must not be cancelled. Without an executor, it is completed
+	 * on return.
+	 *
+	 * @return The pending flow field, or null if the world has no registered routing grid.
+	 */
+	@Nullable
+	public Future<FlowField> requestFlowField(World world, Vector2F goal)
+	{
+		final FlowFieldKey key = new FlowFieldKey(toCell(goal.x), toCell(goal.y));
+		FutureTask<FlowField> task;
+
+		synchronized(this)
+		{
+			IRoutingGrid liveGrid = getRoutingGrid(world);
+
+			if(liveGrid == null)
+				return null;
+
+			final WorldRoutes routes = getRoutes(world);
+			final FlowField field = routes.m_flowFields.get(key);
+
+			if(field != null)
+			{
+				FutureTask<FlowField> cached = new FutureTask<>(new Callable<FlowField>() {
+					@Override
+					public FlowField call()
+					{
+						return field;
+					}
+				});
+
+				cached.run();
+
+				return cached;
+			}
+
+			Future<FlowField> pending = routes.m_pendingFlowFields.get(key);
+
+			if(pending != null)
+				return pending;
+
+			final IRoutingGrid grid = m_executor == null ? liveGrid : getSnapshot(world, liveGrid);
+			final long generation = m_generation;
+
+			task = new FutureTask<>(new Callable<FlowField>() {
+				@Override
+				public FlowField call()
+				{
+					FlowField field = new FlowField(grid, key.m_goalX, key.m_goalY);
+
+					synchronized(RouteService.this)
+					{
+						//Fields computed against a grid which has since been replaced or invalidated are not cached.
+						//Invalidation has already discarded them from the pending fields.
+						if(m_generation == generation)
+						{
+							routes.m_pendingFlowFields.remove(key);
+							routes.m_flowFields.put(key, field);
+						}
+					}
+
+					return field;
+				}
+			});
+
+			if(m_executor != null)
+				routes.m_pendingFlowFields.put(key, task);
+		}
+
+		if(m_executor == null)
+			task.run();
+		else
+			m_executor.execute(task);
+
+		return task;
+	}
+
+	/**
+	 * Provides the flow field towards the cell containing the goal, computing it on the calling thread
+	 * if it is not cached.
+	 *
+	 * @return The flow field, or null if the world has no registered routing grid.
+	 * @see #requestFlowField(World, Vector2F)
+	 */
+	@Nullable
+	public FlowField getFlowField(World world, Vector2F goal)
+	{
+		IRoutingGrid grid;
+		WorldRoutes routes;
+		long generation;
+		FlowFieldKey key = new FlowFieldKey(toCell(goal.x), toCell(goal.y));
+
+		synchronized(this)
+		{
+			grid = getRoutingGrid(world);
+			generation = m_generation;
+
+			if(grid == null)
+				return null;
+
+			routes = getRoutes(world);
+			FlowField field = routes.m_flowFields.get(key);
+
+			if(field != null)
+				return field;
+		}
+
+		FlowField field = new FlowField(grid, key.m_goalX, key.m_goalY);
+
+		synchronized(this)
+		{
+			//Do not cache fields computed against a grid which has since been replaced or invalidated.
+			if(m_generation == generation)
+				routes.m_flowFields.put(key, field);
+		}
+
+		return field;
+	}
+
+	/**
+	 * Discards all cached routes, flow fields and the cluster graph of the given world.
+	 */
+	public synchronized void invalidate(World world)
+	{
+		invalidateRoutes(world);
+
+		WorldRoutes routes = m_worlds.get(world);
+
+		if(routes != null)
+			routes.m_clusterGraph = null;
+	}
+
+	private synchronized void invalidateRoutes(World world)
+	{
+		m_generation++;
+
+		WorldRoutes routes = m_worlds.get(world);
+
+		if(routes != null)
+			routes.clear();
+	}
+
+	public synchronized void invalidate()
+	{
+		m_generation++;
+
+		for(WorldRoutes routes : m_worlds.values())
+		{
+			routes.clear();
+			routes.m_clusterGraph = null;
+		}
+	}
+
+	/**
+	 * Discards the cached routes of the door's world whenever the door opens or closes, and
+	 * rebuilds the clusters around the door.
+	 */
+	public void watch(final Door door)
+	{
+		door.getObservers().add(new IDoorObserver() {
+			@Override
+			public void doorStatusChanged()
+			{
+				World world = door.getWorld();
+
+				if(world == null)
+				{
+					invalidate();
+					return;
+				}
+
+				ClusterGraph graph;
+
+				synchronized(RouteService.this)
+				{
+					WorldRoutes routes = m_worlds.get(world);
+					graph = routes == null ? null : routes.m_clusterGraph;
+				}
+
+				if(graph != null)
+				{
+					Vector3F location = door.getBody().getLocation();
+					graph.update((int)Math.floor(location.x), (int)Math.floor(location.y));
+				}
+
+				invalidateRoutes(world);
+			}
+		});
+	}
+
+	public long getHitCount()
+	{
+		return m_hits.get();
+	}
+
+	public long getMissCount()
+	{
+		return m_misses.get();
+	}
+
+	public synchronized int getCachedCount()
+	{
+		int count = 0;
+
+		for(WorldRoutes routes : m_worlds.values())
+			count += routes.m_routes.size();
+
+		return count;
+	}
+
+	private final class WorldRoutes
+	{
+		@Nullable
+		private IRoutingGrid m_grid;
+
+		@Nullable
+		private IRoutingGrid m_snapshot;
+
+		@Nullable
+		private ClusterGraph m_clusterGraph;
+
+		private final Map<FlowFieldKey, Future<FlowField>> m_pendingFlowFields = new HashMap<>();
+
+		private final LinkedHashMap<RouteKey, Route> m_routes = new LinkedHashMap<RouteKey, Route>(16, 0.75F, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<RouteKey, Route> eldest)
+			{
+				return size() > m_capacity;
+			}
+		};
+
+		private final LinkedHashMap<FlowFieldKey, FlowField> m_flowFields = new LinkedHashMap<FlowFieldKey, FlowField>(16, 0.75F, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<FlowFieldKey, FlowField> eldest)
+			{
+				return size() > FLOW_FIELD_CAPACITY;
+			}
+		};
+
+		//Discards everything derived from the world's obstacles, other than its cluster graph.
+		public void clear()
+		{
+			m_snapshot = null;
+			m_pendingFlowFields.clear();
+			m_routes.clear();
+			m_flowFields.clear();
+		}
+	}
+
+	private static final class GridSnapshot implements IRoutingGrid
+	{
+		private final int m_width;
+		private final int m_height;
+		private final boolean[] m_traversable;
+
+		public GridSnapshot(IRoutingGrid grid)
+		{
+			m_width = grid.getWidth();
+			m_height = grid.getHeight();
+			m_traversable = new boolean[m_width * m_height];
+
+			for(int y = 0; y < m_height; y++)
+			{
+				for(int x = 0; x < m_width; x++)
+					m_traversable[y * m_width + x] = grid.isTraversable(x, y);
+			}
+		}
+
+		@Override
+		public int getWidth()
+		{
+			return m_width;
+		}
+
+		@Override
+		public int getHeight()
+		{
+			return m_height;
+		}
+
+		@Override
+		public boolean isTraversable(int x, int y)
+		{
+			return x >= 0 && y >= 0 && x < m_width && y < m_height && m_traversable[y * m_width + x];
+		}
+	}
+
+	private static final class FlowFieldKey
+	{
+		private final int m_goalX;
+		private final int m_goalY;
+
+		public FlowFieldKey(int goalX, int goalY)
+		{
+			m_goalX = goalX;
+			m_goalY = goalY;
+		}
+
+		@Override
+		public boolean equals(Object o)
+		{
+			if(!(o instanceof FlowFieldKey))
+				return false;
+
+			FlowFieldKey key = (FlowFieldKey)o;
+
+			return m_goalX == key.m_goalX && m_goalY == key.m_goalY;
+		}
+
+		@Override
+		public int hashCode()
+		{
+			return 31 * m_goalX + m_goalY;
+		}
+	}
+
+	private static final class RouteKey
+	{
+		private final Object m_rules;
+		private final int m_startX;
+		private final int m_startY;
+		private final int m_goalX;
+		private final int m_goalY;
+		private final float m_arrivalTolorance;
+
+		public RouteKey(Object rules, int startX, int startY, int goalX, int goalY, float arrivalTolorance)
+		{
+			m_rules = rules;
+			m_startX = startX;
+			m_startY = startY;
+			m_goalX = goalX;
+			m_goalY = goalY;
+			m_arrivalTolorance = arrivalTolorance;
+		}
+
+		@Override
+		public boolean equals(Object o)
+		{
+			if(!(o instanceof RouteKey))
+				return false;
+
+			RouteKey key = (RouteKey)o;
+
+			return m_rules.equals(key.m_rules) &&
+					m_startX == key.m_startX && m_startY == key.m_startY &&
+					m_goalX == key.m_goalX && m_goalY == key.m_goalY &&
+					Float.compare(m_arrivalTolorance, key.m_arrivalTolorance) == 0;
+		}
+
+		@Override
+		public int hashCode()
+		{
+			int hash = m_rules.hashCode();
+			hash = 31 * hash + m_startX;
+			hash = 31 * hash + m_startY;
+			hash = 31 * hash + m_goalX;
+			hash = 31 * hash + m_goalY;
+			hash = 31 * hash + Float.floatToIntBits(m_arrivalTolorance);
+
+			return hash;
+		}
+	}
+}
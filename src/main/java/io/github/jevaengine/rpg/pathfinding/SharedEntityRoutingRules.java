@@ -0,0 +1,77 @@
+/*
+ * Copyright (C) 2015 Jeremy Wildsmith.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+package io.github.jevaengine.rpg.pathfinding;
+
+import io.github.jevaengine.world.Direction;
+import io.github.jevaengine.world.entity.IEntity;
+import io.github.jevaengine.world.pathfinding.EntityRoutingRules;
+
+import java.util.Arrays;
+
+/**
+ * Entity routing rules which share cached routes with the rules of every other entity of the same
+ * size moving in the same directions.
+ *
+ * @author Jeremy
+ */
+public final class SharedEntityRoutingRules extends EntityRoutingRules implements ISharedRoutingRules
+{
+	private final RoutingProfile m_profile;
+
+	public SharedEntityRoutingRules(IEntity host, Direction[] directions)
+	{
+		super(host, directions);
+		m_profile = new RoutingProfile(directions, host.getBody().getBoundingCircle().radius);
+	}
+
+	@Override
+	public Object getRoutingProfile()
+	{
+		return m_profile;
+	}
+
+	private static final class RoutingProfile
+	{
+		private final Direction[] m_directions;
+		private final float m_radius;
+
+		public RoutingProfile(Direction[] directions, float radius)
+		{
+			m_directions = Arrays.copyOf(directions, directions.length);
+			m_radius = radius;
+		}
+
+		@Override
+		public boolean equals(Object o)
+		{
+			if(!(o instanceof RoutingProfile))
+				return false;
+
+			RoutingProfile profile = (RoutingProfile)o;
+
+			return Float.compare(m_radius, profile.m_radius) == 0 && Arrays.equals(m_directions, profile.m_directions);
+		}
+
+		@Override
+		public int hashCode()
+		{
+			return 31 * Arrays.hashCode(m_directions) + Float.floatToIntBits(m_radius);
+		}
+	}
+}
@@ -0,0 +1,71 @@
+/*
+ * Copyright (C) 2015 Jeremy Wildsmith.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+package io.github.jevaengine.rpg.pathfinding;
+
+import io.github.jevaengine.math.Vector2F;
+import io.github.jevaengine.world.physics.IPhysicsBody;
+import io.github.jevaengine.world.steering.ISteeringBehavior;
+
+/**
+ * Steers a body through a sequence of waypoints, such as those found by a {@link GridSearch}.
+ * Directs a zero vector once the body is within the arrival tolerance of the final waypoint.
+ *
+ * @author Jeremy
+ */
+public final class WaypointBehavior implements ISteeringBehavior
+{
+	private static final float WAYPOINT_TOLORANCE = 0.25F;
+
+	private final IPhysicsBody m_body;
+	private final Vector2F[] m_waypoints;
+	private final float m_arrivalTolorance;
+
+	private int m_current = 0;
+
+	public WaypointBehavior(IPhysicsBody body, Vector2F[] waypoints, float arrivalTolorance)
+	{
+		m_body = body;
+		m_waypoints = waypoints;
+		m_arrivalTolorance = arrivalTolorance;
+	}
+
+	@Override
+	public Vector2F direct()
+	{
+		Vector2F location = m_body.getLocation().getXy();
+
+		while(m_current < m_waypoints.length)
+		{
+			Vector2F waypoint = m_waypoints[m_current];
+			boolean isLast = m_current == m_waypoints.length - 1;
+			float tolorance = isLast ? m_arrivalTolorance : Math.max(m_arrivalTolorance, WAYPOINT_TOLORANCE);
+
+			float dx = waypoint.x - location.x;
+			float dy = waypoint.y - location.y;
+			float distance = (float)Math.sqrt(dx * dx + dy * dy);
+
+			if(distance > tolorance && distance > 0)
+				return new Vector2F(dx / distance, dy / distance);
+
+			m_current++;
+		}
+
+		return new Vector2F();
+	}
+}